@@ -0,0 +1,70 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter. Each call to {@link #next()} returns a delay around
+ * the current interval and then multiplies the interval, up to the max interval. The
+ * jitter spreads out the delays of many clients that started backing off at the same
+ * time.
+ */
+class Backoff {
+	private long mMinInterval;
+	private long mMaxInterval;
+	private double mMultiplier;
+	private double mJitter;
+	private long mInterval;
+
+	/**
+	 * @param minInterval first delay in milliseconds after a reset
+	 * @param maxInterval max delay in milliseconds, not counting jitter
+	 * @param multiplier how much the interval grows after each delay
+	 * @param jitter how much a delay may differ from the interval, 0.2 means +-20%
+	 */
+	Backoff(long minInterval, long maxInterval, double multiplier, double jitter) {
+		setIntervals(minInterval, maxInterval);
+		mMultiplier = multiplier;
+		mJitter = jitter;
+	}
+
+	/**
+	 * Sets the min and max interval and resets the backoff
+	 * @param minInterval first delay in milliseconds after a reset
+	 * @param maxInterval max delay in milliseconds, not counting jitter
+	 */
+	synchronized void setIntervals(long minInterval, long maxInterval) {
+		if (minInterval < 0 || maxInterval < minInterval) {
+			throw new IllegalArgumentException("Invalid intervals: " + minInterval + ", " + maxInterval);
+		}
+		mMinInterval = minInterval;
+		mMaxInterval = maxInterval;
+		mInterval = minInterval;
+	}
+
+	/**
+	 * @return next delay in milliseconds
+	 */
+	synchronized long next() {
+		long delay = mInterval;
+		if (mJitter > 0 && delay > 0) {
+			double factor = 1 - mJitter + ThreadLocalRandom.current().nextDouble() * 2 * mJitter;
+			delay = Math.round(delay * factor);
+		}
+		mInterval = Math.min(mMaxInterval, Math.max(mInterval + 1, (long) (mInterval * mMultiplier)));
+		return delay;
+	}
+
+	/**
+	 * Start over from the min interval
+	 */
+	synchronized void reset() {
+		mInterval = mMinInterval;
+	}
+
+	/**
+	 * @return the interval the next delay will be based on, in milliseconds
+	 */
+	synchronized long getInterval() {
+		return mInterval;
+	}
+}
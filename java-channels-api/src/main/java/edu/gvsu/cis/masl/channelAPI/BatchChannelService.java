@@ -0,0 +1,18 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.List;
+
+/**
+ * A channel service that receives messages in batches. The server can send several
+ * messages in one response, and a listener implementing this interface gets them in one
+ * call instead of one {@link #onMessage(String)} call per message. When a dispatch queue
+ * is used, the messages waiting in the queue are delivered together.
+ */
+public interface BatchChannelService extends ChannelService {
+	/**
+	 * Called instead of {@link #onMessage(String)} when the socket receives messages
+	 * @param messages one or more messages in the order they were sent. The list belongs
+	 *        to the listener.
+	 */
+	void onMessages(List<String> messages);
+}
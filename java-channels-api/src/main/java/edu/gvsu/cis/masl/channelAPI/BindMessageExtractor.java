@@ -0,0 +1,286 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Extracts the message ids, session id and "ae" payloads from a bind submission while
+ * it's being parsed, without building a {@link TalkMessage} tree. A submission looks like
+ * <code>[[id,["c",[sessionId,["ae",payload]]]],[id,...],...]</code>, with one entry per
+ * message; everything not on that path is skipped. Only the session id and payloads are
+ * copied into Strings, and the session id only when it has changed. With payload views,
+ * the payloads are instead copied into a char buffer that is reused by every submission,
+ * so no Strings are created for them unless {@link #getPayloads()} is called.
+ */
+class BindMessageExtractor implements TalkMessageHandler {
+	/** Nesting depth of the payload message */
+	private static final int PAYLOAD_DEPTH = 5;
+	/** Initial size of the buffer the payloads are copied into with payload views */
+	private static final int PAYLOAD_CHARS_INITIAL = 1024;
+
+	/** Index of the next entry for each message on the path, index 0 is always 0 */
+	private int[] mIndices = new int[PAYLOAD_DEPTH + 1];
+	/** How deep we currently are, the outermost message has depth 1 */
+	private int mDepth = 0;
+	/** Depth of the innermost message on the path that we're currently inside */
+	private int mPathDepth = 0;
+	private boolean mChannelData = false;
+	private boolean mHasSessionId = false;
+	private boolean mPayloadKind = false;
+
+	/** Payload of the entry currently being parsed */
+	private String mPayload = null;
+
+	private boolean mHasMessageId = false;
+	private long mMessageId = 0;
+	private String mSessionId = null;
+	private ArrayList<String> mPayloads = new ArrayList<String>();
+
+	private boolean mPayloadViews = false;
+	/** The payloads of the submission one after the other, with payload views */
+	private char[] mPayloadChars = new char[PAYLOAD_CHARS_INITIAL];
+	/** End of each payload in mPayloadChars, the first one starts at 0 */
+	private int[] mPayloadEnds = new int[16];
+	private int mPayloadCount = 0;
+	/** End of the payload of the entry currently being parsed, -1 if it has none */
+	private int mPayloadEnd = -1;
+	private CharArraySequence mPayloadView = new CharArraySequence();
+
+	/**
+	 * Prepare for a new submission
+	 * @param sessionId the current session id, reused if the submission contains the same
+	 *        session id
+	 */
+	void reset(String sessionId) {
+		reset(sessionId, false);
+	}
+
+	/**
+	 * Prepare for a new submission
+	 * @param sessionId the current session id, reused if the submission contains the same
+	 *        session id
+	 * @param payloadViews true to keep the payloads in a reused buffer, to be read with
+	 *        {@link #getPayloadView(int)}, instead of creating Strings
+	 */
+	void reset(String sessionId, boolean payloadViews) {
+		mDepth = 0;
+		mPathDepth = 0;
+		mChannelData = false;
+		mHasSessionId = false;
+		mPayloadKind = false;
+		mHasMessageId = false;
+		mMessageId = 0;
+		mSessionId = sessionId;
+		mPayload = null;
+		mPayloads.clear();
+		mPayloadViews = payloadViews;
+		mPayloadCount = 0;
+		mPayloadEnd = -1;
+	}
+
+	/**
+	 * @return true if an entry of the submission contained a message id
+	 */
+	boolean hasMessageId() {
+		return mHasMessageId;
+	}
+
+	/**
+	 * @return highest message id in the submission, only valid if {@link #hasMessageId()}
+	 */
+	long getMessageId() {
+		return mMessageId;
+	}
+
+	/**
+	 * @return session id of the submission, or the session id passed to
+	 *         {@link #reset(String)} if the submission didn't contain one
+	 */
+	String getSessionId() {
+		return mSessionId;
+	}
+
+	/**
+	 * @return the "ae" payloads of all entries in the submission, in order. The list is
+	 *         reused by the next submission. With payload views, the Strings are created
+	 *         by this call.
+	 */
+	List<String> getPayloads() {
+		if (mPayloadViews && mPayloads.size() < mPayloadCount) {
+			for (int i = mPayloads.size(); i < mPayloadCount; i++) {
+				mPayloads.add(getPayloadView(i).toString());
+			}
+		}
+		return mPayloads;
+	}
+
+	/**
+	 * @return number of "ae" payloads in the submission
+	 */
+	int getPayloadCount() {
+		return mPayloadViews ? mPayloadCount : mPayloads.size();
+	}
+
+	/**
+	 * @param index index of the payload in the submission
+	 * @return the payload. With payload views, it's a view that is reused by the next
+	 *         call and is only valid until the next submission.
+	 */
+	CharSequence getPayloadView(int index) {
+		if (!mPayloadViews) {
+			return mPayloads.get(index);
+		}
+		if (index < 0 || index >= mPayloadCount) {
+			throw new IndexOutOfBoundsException("index: " + index + ", count: " + mPayloadCount);
+		}
+		int start = index > 0 ? mPayloadEnds[index - 1] : 0;
+		mPayloadView.set(mPayloadChars, start, mPayloadEnds[index] - start);
+		return mPayloadView;
+	}
+
+	@Override
+	public void startMessage() {
+		if (mDepth == mPathDepth && isPathMessage(mDepth, mIndices[mDepth])) {
+			mPathDepth++;
+			mIndices[mPathDepth] = 0;
+			// A new entry
+			if (mPathDepth == 2) {
+				mChannelData = false;
+				mHasSessionId = false;
+				mPayloadKind = false;
+				mPayload = null;
+				mPayloadEnd = -1;
+			}
+		}
+		mDepth++;
+	}
+
+	@Override
+	public void endMessage() {
+		if (mDepth == 2 && mPathDepth == 2 && mPayload != null) {
+			mPayloads.add(mPayload);
+			mPayload = null;
+		} else if (mDepth == 2 && mPathDepth == 2 && mPayloadEnd >= 0) {
+			if (mPayloadCount == mPayloadEnds.length) {
+				mPayloadEnds = Arrays.copyOf(mPayloadEnds, mPayloadCount * 2);
+			}
+			mPayloadEnds[mPayloadCount++] = mPayloadEnd;
+			mPayloadEnd = -1;
+		}
+		if (mDepth == mPathDepth) {
+			mPathDepth--;
+		}
+		mDepth--;
+		nextEntry();
+	}
+
+	@Override
+	public void stringValue(CharSequence value) {
+		if (mDepth == mPathDepth) {
+			int index = mIndices[mDepth];
+			if (mDepth == 3 && index == 0) {
+				mChannelData = contentEquals(value, "c", false);
+			} else if (mDepth == 4 && index == 0) {
+				mHasSessionId = true;
+				if (!contentEquals(value, mSessionId, false)) {
+					mSessionId = value.toString();
+				}
+			} else if (mDepth == PAYLOAD_DEPTH && index == 0) {
+				mPayloadKind = contentEquals(value, "ae", true);
+			} else if (mDepth == PAYLOAD_DEPTH && index == 1 && mPayloadKind) {
+				if (mPayloadViews) {
+					copyPayload(value);
+				} else {
+					mPayload = value.toString();
+				}
+			}
+		}
+		nextEntry();
+	}
+
+	@Override
+	public void numberValue(long value) {
+		if (mDepth == mPathDepth && mDepth == 2 && mIndices[mDepth] == 0) {
+			if (!mHasMessageId || value > mMessageId) {
+				mMessageId = value;
+			}
+			mHasMessageId = true;
+		}
+		nextEntry();
+	}
+
+	@Override
+	public void emptyValue() {
+		nextEntry();
+	}
+
+	/**
+	 * Copy the payload of the current entry after the payloads of the previous entries. It
+	 * only counts as a payload once the entry has ended.
+	 * @param value
+	 */
+	private void copyPayload(CharSequence value) {
+		int start = mPayloadCount > 0 ? mPayloadEnds[mPayloadCount - 1] : 0;
+		int length = value.length();
+		if (mPayloadChars.length - start < length) {
+			mPayloadChars = Arrays.copyOf(mPayloadChars, Math.max(mPayloadChars.length * 2, start + length));
+		}
+		if (value instanceof CharArraySequence) {
+			((CharArraySequence) value).getChars(mPayloadChars, start);
+		} else {
+			for (int i = 0; i < length; i++) {
+				mPayloadChars[start + i] = value.charAt(i);
+			}
+		}
+		mPayloadEnd = start + length;
+	}
+
+	/**
+	 * Advance the entry index of the current message if it's on the path
+	 */
+	private void nextEntry() {
+		if (mDepth > 0 && mDepth == mPathDepth) {
+			mIndices[mDepth]++;
+		}
+	}
+
+	/**
+	 * Checks if a message is on the path to the payload
+	 * @param parentDepth depth of the parent message, 0 for the outermost message
+	 * @param index index of the message in its parent
+	 * @return true if the message is on the path to the payload
+	 */
+	private boolean isPathMessage(int parentDepth, int index) {
+		switch (parentDepth) {
+		case 0:
+			return true;
+		case 1:
+			return true;
+		case 2:
+			return index == 1;
+		case 3:
+			return index == 1 && mChannelData;
+		case 4:
+			return index == 1 && mHasSessionId;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Compare a parsed string with a string without copying it
+	 * @param value the parsed string
+	 * @param string the string to compare with
+	 * @param ignoreCase true to ignore case
+	 * @return true if they contain the same characters
+	 */
+	private static boolean contentEquals(CharSequence value, String string, boolean ignoreCase) {
+		if (value instanceof CharArraySequence) {
+			CharArraySequence chars = (CharArraySequence) value;
+			return ignoreCase ? chars.contentEqualsIgnoreCase(string) : chars.contentEquals(string);
+		} else {
+			return ignoreCase ? value.toString().equalsIgnoreCase(string) : value.toString().equals(string);
+		}
+	}
+}
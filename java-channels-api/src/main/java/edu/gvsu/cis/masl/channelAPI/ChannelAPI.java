@@ -7,16 +7,24 @@ import java.net.MalformedURLException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import com.spiddekauga.http.HttpGetBuilder;
 import com.spiddekauga.http.HttpPostBuilder;
-import com.spiddekauga.http.HttpResponseParser;
 
 /**
  * API for interacting with Channels on a Google App Engine server.
@@ -35,13 +43,32 @@ public class ChannelAPI {
 	};
 
 	private static final String DEFAULT_URL = "http://localhost:8888";
-	private static final Integer TIMEOUT_MS = 500;
+	/** Default delay before the first development poll after a message */
+	private static final long DEV_POLL_INTERVAL_MIN_MS_DEFAULT = 100;
+	/** Default max delay between development polls while the channel is quiet */
+	private static final long DEV_POLL_INTERVAL_MAX_MS_DEFAULT = 2000;
+	/** Default number of reconnect attempts before the channel is closed */
+	private static final int RECONNECT_ATTEMPTS_DEFAULT = 10;
+	/** Default delay before the first reconnect attempt */
+	private static final long RECONNECT_INTERVAL_MIN_MS_DEFAULT = 1000;
+	/** Default max delay between reconnect attempts */
+	private static final long RECONNECT_INTERVAL_MAX_MS_DEFAULT = 60000;
 	private static final String CHANNEL_URL = "/_ah/channel/";
 	private static final String PROD_TALK_URL = "https://talkgadget.google.com/talkgadget/";
 	private static SecureRandom mSecureRandom = new SecureRandom();
+	private static final Executor DEFAULT_POLL_EXECUTOR = PollThreads.perTask(PollThreads.platform("ChannelAPI-poll-", false));
+	private static final int OUTBOUND_CAPACITY_DEFAULT = 1024;
+	private static final ThreadFactory OUTBOUND_THREAD_FACTORY = PollThreads.platform("ChannelAPI-send-", true);
+	private static final ThreadFactory DISPATCH_THREAD_FACTORY = PollThreads.platform("ChannelAPI-dispatch-", true);
+	/** Max number of channels opened by {@link #openAsync()} at the same time */
+	private static final int OPEN_THREAD_COUNT = 16;
+	private static final Executor OPEN_EXECUTOR = PollThreads.fixed(PollThreads.platform("ChannelAPI-open-", true), OPEN_THREAD_COUNT);
+	/** Content type of messages sent as the request body */
+	private static final String TEXT_CONTENT_TYPE = "text/plain; charset=UTF-8";
 
 	private boolean mProduction = false;
 	private String mBaseUrl = DEFAULT_URL;
+	private String mTalkUrl = PROD_TALK_URL;
 	private String mChannelId = null;
 	private String mApplicationKey = null;
 	private String mClientId = null;
@@ -51,7 +78,50 @@ public class ChannelAPI {
 	private long mMessageId = 1;
 	private ChannelService mChannelListener = new ChannelListener();
 	private ReadyState mReadyState = ReadyState.CLOSED;
-	private Thread mtPoll = null;
+	private Executor mPollExecutor = DEFAULT_POLL_EXECUTOR;
+	private AtomicBoolean mPolling = new AtomicBoolean(false);
+	private OutboundQueue mOutboundQueue = null;
+	private boolean mOutboundClosed = false;
+	private int mBatchMaxMessages = 1;
+	private int mBatchMaxLength = Integer.MAX_VALUE;
+	private long mBatchLingerMs = 0;
+	/** Sends messages for the outbound queue */
+	private OutboundQueue.Sender mSender = new OutboundQueue.Sender() {
+		@Override
+		public int send(String message, String urlPattern) throws IOException {
+			HttpNiceResponse response = post(message, urlPattern);
+			forwardSendComplete(response);
+			return response.getStatus();
+		}
+
+		@Override
+		public int sendBatch(List<String> messages, String urlPattern) throws IOException {
+			HttpNiceResponse response = postBatch(messages, urlPattern);
+			forwardSendComplete(response);
+			return response.getStatus();
+		}
+	};
+	private ChannelHub mHub = null;
+	private volatile ListenerDispatcher mDispatcher = null;
+	private volatile ChannelMetrics mMetrics = ChannelMetrics.DISABLED;
+	private String mMetricsName = null;
+	private long mBackChannelOpenTime = 0;
+	private HttpURLConnection mBackChannelConnection = null;
+	private TalkMessageParser mBackChannelParser = null;
+	private BindMessageExtractor mBackChannelMessage = new BindMessageExtractor();
+	private long mBackChannelReadTime = 0;
+	private Backoff mDevPollBackoff = new Backoff(DEV_POLL_INTERVAL_MIN_MS_DEFAULT, DEV_POLL_INTERVAL_MAX_MS_DEFAULT, 2, 0.2);
+	private volatile long mDevPollInterval = 0;
+	private AtomicLong mDevPollCount = new AtomicLong();
+	private AtomicLong mDevEmptyPollCount = new AtomicLong();
+	private Backoff mReconnectBackoff = new Backoff(RECONNECT_INTERVAL_MIN_MS_DEFAULT, RECONNECT_INTERVAL_MAX_MS_DEFAULT, 2, 0.5);
+	private volatile int mReconnectAttemptsMax = RECONNECT_ATTEMPTS_DEFAULT;
+	private int mReconnectAttempts = 0;
+	private AtomicLong mResumeCount = new AtomicLong();
+	private AtomicLong mHandshakeCount = new AtomicLong();
+	private boolean mResumeOnOpen = false;
+	private volatile boolean mAcceptCompressed = false;
+	private volatile SendFormat mSendFormat = SendFormat.FORM;
 
 	/**
 	 * Default Constructor
@@ -77,12 +147,27 @@ public class ChannelAPI {
 	 * @throws IOException JSON Related
 	 */
 	public ChannelAPI(String URL, String channelKey, ChannelService channelService) throws IOException {
+		this(URL, channelKey, channelService, null);
+	}
+
+	/**
+	 * Create A Channel with a token from a pool, so the channel can usually be created
+	 * without a request to the server
+	 * @param URL - Server Location - http://localhost:8888
+	 * @param channelKey - Unique Identifier for channel groups, see
+	 *        {@link #ChannelAPI(String, String, ChannelService)}
+	 * @param channelService - An Implementation of the ChannelService class
+	 * @param tokenPool tokens fetched ahead of time, the pool requests a token if it
+	 *        doesn't have one for channelKey. Null to request the token from "/token".
+	 * @throws IOException if the token couldn't be requested
+	 */
+	public ChannelAPI(String URL, String channelKey, ChannelService channelService, TokenPool tokenPool) throws IOException {
 		mClientId = null;
 		mBaseUrl = URL;
 		fixBaseUrl();
 		mRequestId = 0;
 		mMessageId = 1;
-		mChannelId = createChannel(channelKey);
+		mChannelId = tokenPool != null ? tokenPool.take(channelKey) : createChannel(channelKey);
 		mApplicationKey = channelKey;
 
 		if (mChannelListener != null) {
@@ -138,6 +223,59 @@ public class ChannelAPI {
 		return mProduction;
 	}
 
+	/**
+	 * Sets the URL of the talkgadget server used in production mode, e.g. to run against
+	 * a local stand-in during load tests. Defaults to
+	 * {@value #PROD_TALK_URL}.
+	 * @param talkUrl URL of the talkgadget server, the "d" and "dch/bind" endpoints are
+	 *        resolved relative to it
+	 */
+	public void setTalkUrl(String talkUrl) {
+		if (talkUrl != null && !talkUrl.isEmpty()) {
+			mTalkUrl = talkUrl.endsWith("/") ? talkUrl : talkUrl + "/";
+		}
+	}
+
+	/**
+	 * @return URL of the talkgadget server used in production mode
+	 */
+	public String getTalkUrl() {
+		return mTalkUrl;
+	}
+
+	/**
+	 * Sets whether the server may compress the responses of the development poll, the
+	 * production long-poll and the "d" handshake page with gzip or deflate. Compressed
+	 * responses are decompressed as they arrive. Saves most of the bandwidth on slow
+	 * networks, but a server that buffers compressed output can delay messages. Off by
+	 * default. The bytes before and after decompression are counted by
+	 * {@link ChannelMetrics#getBytesReceived()} and
+	 * {@link ChannelMetrics#getBytesDecoded()}.
+	 * @param acceptCompressed true to ask for compressed responses
+	 */
+	public void setAcceptCompressed(boolean acceptCompressed) {
+		mAcceptCompressed = acceptCompressed;
+	}
+
+	/**
+	 * @return true if the server may compress responses
+	 */
+	public boolean isAcceptCompressed() {
+		return mAcceptCompressed;
+	}
+
+	/**
+	 * Ask for a compressed response if that is enabled
+	 * @param connection a GET request that hasn't been sent yet
+	 * @return the connection
+	 */
+	private HttpURLConnection acceptCompressed(HttpURLConnection connection) {
+		if (mAcceptCompressed) {
+			DecodingInputStream.acceptCompressed(connection);
+		}
+		return connection;
+	}
+
 	/**
 	 * Remove trailing slash from base URL
 	 */
@@ -158,15 +296,14 @@ public class ChannelAPI {
 
 		HttpGetBuilder builder = new HttpGetBuilder(mBaseUrl + "/token");
 		builder.addParameter("c", key);
-		HttpURLConnection connection = builder.build();
+		HttpURLConnection connection = ConnectionPool.track(builder.build());
 
+		String response = ConnectionPool.readResponse(connection);
 		try {
-			JSONObject json = new JSONObject(HttpResponseParser.getStringResponse(connection));
-			token = json.getString("token");
-		} catch (JSONException e) {
+			token = JsonCodec.getString(JsonCodec.decodeObject(response), "token");
+		} catch (IOException e) {
 			System.out.println("Error: Parsing JSON");
 		}
-		connection.disconnect();
 
 		return token;
 	}
@@ -183,9 +320,12 @@ public class ChannelAPI {
 
 		// Production - AppEngine Mode
 		if (isProduction()) {
-			initialize();
-			fetchSid();
-			connect();
+			if (!resumeImportedSession()) {
+				initialize();
+				fetchSid();
+				connect();
+			}
+			getCallbacks().onOpen();
 			longPoll();
 		}
 		// Local Development Mode
@@ -194,31 +334,69 @@ public class ChannelAPI {
 		}
 	}
 
+	/**
+	 * Open the channel on a shared pool of {@value #OPEN_THREAD_COUNT} threads, without
+	 * waiting for the handshake. Further channels wait for a free thread, use
+	 * {@link #openAsync(Executor)} or {@link ChannelOpener} for another limit.
+	 * @return future that completes once the channel is open. Fails with the exception
+	 *         {@link #open()} threw.
+	 * @see ChannelOpener
+	 */
+	public Future<Void> openAsync() {
+		return openAsync(OPEN_EXECUTOR);
+	}
+
+	/**
+	 * Open the channel on an executor, without waiting for the handshake
+	 * @param executor runs {@link #open()}
+	 * @return future that completes once the channel is open. Fails with the exception
+	 *         {@link #open()} threw, or with a RejectedExecutionException if the executor
+	 *         rejected it.
+	 */
+	public Future<Void> openAsync(Executor executor) {
+		FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException, ChannelException {
+				open();
+				return null;
+			}
+		});
+		try {
+			executor.execute(task);
+		} catch (final RejectedExecutionException e) {
+			task = new FutureTask<Void>(new Callable<Void>() {
+				@Override
+				public Void call() {
+					throw e;
+				}
+			});
+			task.run();
+		}
+		return task;
+	}
+
 	/**
 	 * Sets up the initial connection, passes in the token
 	 * @throws ChannelException
 	 */
 	private void initialize() throws ChannelException {
 
-		JSONObject xpc = new JSONObject();
-		try {
-			xpc.put("cn", getRandomString());
-			xpc.put("tp", "null");
-			xpc.put("lpu", PROD_TALK_URL + "xpc_blank");
-			xpc.put("ppu", mBaseUrl + CHANNEL_URL + "xpc_blank");
-
-		} catch (JSONException e1) {
-			// Does nothing
-		}
+		Map<String, Object> xpc = new LinkedHashMap<String, Object>();
+		xpc.put("cn", getRandomString());
+		xpc.put("tp", "null");
+		xpc.put("lpu", mTalkUrl + "xpc_blank");
+		xpc.put("ppu", mBaseUrl + CHANNEL_URL + "xpc_blank");
 
+		long startTime = mMetrics.startTimer();
 		try {
-			HttpGetBuilder getBuilder = new HttpGetBuilder(PROD_TALK_URL + "d");
+			HttpGetBuilder getBuilder = new HttpGetBuilder(mTalkUrl + "d");
 			getBuilder.addParameter("token", mChannelId);
-			getBuilder.addParameter("xpc", xpc.toString());
+			getBuilder.addParameter("xpc", JsonCodec.INSTANCE.encode(xpc));
 
-			HttpURLConnection connection = getBuilder.build();
+			HttpURLConnection connection = ConnectionPool.track(acceptCompressed(getBuilder.build()));
 			HttpNiceResponse niceResponse = new HttpNiceResponse(connection);
 			if (niceResponse.getStatus() > 299) {
+				mMetrics.recordError();
 				throw new ChannelException("Initialize failed: " + niceResponse.getStatusText());
 			}
 
@@ -249,11 +427,11 @@ public class ChannelAPI {
 				}
 			}
 
-			connection.disconnect();
-
 		} catch (IOException e) {
+			mMetrics.recordError();
 			throw new ChannelException(e);
 		}
+		mMetrics.recordInitialize(startTime);
 	}
 
 	/**
@@ -264,15 +442,16 @@ public class ChannelAPI {
 
 		TalkMessageParser parser = null;
 		HttpURLConnection connection = null;
+		long startTime = mMetrics.startTimer();
 		try {
 			HttpGetBuilder getBuilder = getBindUrl(false);
 			getBuilder.addParameter("CVER", "1");
 
 			HttpPostBuilder postBuilder = getBuilder.toPostBuilder();
 			postBuilder.addParameter("count", "0");
-			connection = postBuilder.build();
+			connection = ConnectionPool.track(postBuilder.build());
 
-			parser = new TalkMessageParser(connection);
+			parser = new TalkMessageParser(connection, mMetrics);
 			TalkMessage msg = parser.getMessage();
 
 			TalkMessage.TalkMessageEntry entry = msg.getEntries().get(0);
@@ -284,18 +463,18 @@ public class ChannelAPI {
 
 			mSid = entries.get(1).getStringValue();
 
-			parser.close();
-
-			connection.disconnect();
+			parser.release();
+			mMetrics.recordFetchSid(startTime);
 
 		} catch (IOException | InvalidMessageException e) {
+			mMetrics.recordError();
 			if (parser != null) {
 				parser.close();
 			}
 			if (connection != null) {
-				connection.disconnect();
+				ConnectionPool.discard(connection);
 			}
-			new ChannelException(e);
+			throw new ChannelException(e);
 		}
 	}
 
@@ -304,6 +483,7 @@ public class ChannelAPI {
 	 * @throws ChannelException
 	 */
 	private void connect() throws ChannelException {
+		long startTime = mMetrics.startTimer();
 		try {
 			HttpGetBuilder getBuilder = getBindUrl(false);
 			getBuilder.addParameter("AID", mMessageId);
@@ -317,17 +497,16 @@ public class ChannelAPI {
 			postBuilder.addParameter("req0_c", mClientId);
 			postBuilder.addParameter("req0__sc", "c");
 
-			HttpURLConnection connection = postBuilder.build();
+			HttpURLConnection connection = ConnectionPool.track(postBuilder.build());
 			connection.connect();
 			// Necessary for actually connecting...
 			new HttpNiceResponse(connection);
-			connection.disconnect();
 
 		} catch (IOException e) {
+			mMetrics.recordError();
 			throw new ChannelException(e);
 		}
-
-		mChannelListener.onOpen();
+		mMetrics.recordConnect(startTime);
 	}
 
 	/**
@@ -336,8 +515,8 @@ public class ChannelAPI {
 	 * @return HttpGetBuilder with the appropriate GET parameters set
 	 * @throws IOException
 	 */
-	private HttpGetBuilder getBindUrl(boolean useRpc) throws IOException {
-		HttpGetBuilder getBuilder = new HttpGetBuilder(PROD_TALK_URL + "dch/bind");
+	HttpGetBuilder getBindUrl(boolean useRpc) throws IOException {
+		HttpGetBuilder getBuilder = new HttpGetBuilder(mTalkUrl + "dch/bind");
 
 		getBuilder.addParameter("VER", "8");
 		getBuilder.addParameter("token", mChannelId);
@@ -361,118 +540,435 @@ public class ChannelAPI {
 		return getBuilder;
 	}
 
+	/**
+	 * Sets the ids of the bind session, as they would be after the handshake
+	 * @param clientId
+	 * @param sessionId the gsessionid
+	 * @param sid
+	 * @param messageId the last message id (AID) that was received
+	 */
+	void setSession(String clientId, String sessionId, String sid, long messageId) {
+		mClientId = clientId;
+		mSessionId = sessionId;
+		mSid = sid;
+		mMessageId = messageId;
+	}
+
+	/**
+	 * Export the state of the bind session, so a restarted process can resume it with
+	 * {@link #importSession(ChannelSession)} instead of going through the handshake
+	 * again. Export after {@link #close()}, or from a listener callback, to be sure the
+	 * last message id matches the messages that were delivered.
+	 * @return the session, null if there is no production bind session to export
+	 */
+	public ChannelSession exportSession() {
+		if (!isProduction() || mSid == null) {
+			return null;
+		}
+		return new ChannelSession(mChannelId, mApplicationKey, mClientId, mSessionId, mSid, mMessageId, mRequestId, System.currentTimeMillis());
+	}
+
+	/**
+	 * Import a bind session exported by {@link #exportSession()}. The next {@link #open()}
+	 * opens the long-poll request with the session directly, and only goes through the
+	 * full handshake if the server rejects it. Messages sent after the exported message id
+	 * are delivered once the session has been resumed.
+	 * @param session the exported session
+	 */
+	public void importSession(ChannelSession session) {
+		mChannelId = session.getChannelId();
+		mApplicationKey = session.getApplicationKey();
+		mClientId = session.getClientId();
+		mSessionId = session.getSessionId();
+		mSid = session.getSid();
+		mMessageId = session.getMessageId();
+		mRequestId = session.getRequestId();
+		mResumeOnOpen = true;
+	}
+
+	/**
+	 * Open the long-poll request with an imported session
+	 * @return true if the server accepted the session, false if there was no imported
+	 *         session or the full handshake is needed
+	 */
+	private boolean resumeImportedSession() {
+		if (!mResumeOnOpen) {
+			return false;
+		}
+		mResumeOnOpen = false;
+
+		if (mSid != null && openBackChannel()) {
+			mResumeCount.incrementAndGet();
+			return true;
+		}
+
+		mSid = null;
+		mRequestId = 0;
+		mMessageId = 1;
+		return false;
+	}
+
 	/**
 	 * Grabbing Data "Production" Path
 	 */
 	private void longPoll() {
-		if (mtPoll != null) {
+		setReadyState(ReadyState.OPEN);
+
+		if (mHub != null) {
+			mHub.longPoll(this);
 			return;
 		}
 
-		mtPoll = new Thread(new Runnable() {
-			private void repoll() {
-				try {
-					HttpGetBuilder getBuilder = getBindUrl(true);
-					getBuilder.addParameter("CI", "0");
-					getBuilder.addParameter("AID", mMessageId);
-					getBuilder.addParameter("TYPE", "xmlhttp");
-					// getBuilder.addParameter("RID", "rpc");
-
-					mConnection = getBuilder.build();
-					mParser = new TalkMessageParser(mConnection);
-				} catch (IOException | ChannelException e) {
-					// Does nothing
-				}
-			}
-
+		startPollTask(new Runnable() {
 			@Override
 			public void run() {
-				while (getReadyState() == ReadyState.OPEN) {
-					if (mParser == null) {
-						repoll();
-						if (mParser == null) {
-							try {
-								Thread.sleep(2500);
-							} catch (InterruptedException e) {
+				boolean reconnecting = false;
+				ChannelException error = null;
+				// Stops when the poll executor is shut down with shutdownNow()
+				while (isOpen() && !Thread.currentThread().isInterrupted()) {
+					if (!isBackChannelOpen()) {
+						boolean opened = reconnecting ? reconnect() : openBackChannel();
+						if (!opened) {
+							long delay = nextReconnectDelay();
+							if (delay < 0) {
+								failBackChannel(error != null ? error : new ChannelException("Couldn't open the long-poll request"));
+								return;
+							}
+							if (!sleep(delay)) {
+								break;
 							}
+							reconnecting = true;
 							continue;
 						}
+						reconnecting = false;
 					}
 					try {
-						TalkMessage msg = mParser.getMessage();
-						if (msg == null) {
-							mParser.close();
-							mParser = null;
-							mConnection.disconnect();
-							mConnection = null;
-						} else {
-							handleMessage(msg);
-						}
+						readBackChannel();
 					} catch (ChannelException e) {
-						mChannelListener.onError(500, e.getMessage());
-
-						// Close the connection.
-						// TODO try to connect again?
-						try {
-							close();
-						} catch (IOException e1) {
-							// Does nothing
+						closeBackChannel();
+						error = e;
+						long delay = nextReconnectDelay();
+						if (delay < 0) {
+							failBackChannel(e);
+							return;
+						}
+						if (!sleep(delay)) {
+							break;
 						}
-						return;
+						reconnecting = true;
 					}
 				}
 
-				if (mParser != null) {
-					mParser.close();
-				}
-				if (mConnection != null) {
-					mConnection.disconnect();
-				}
+				closeBackChannel();
 			}
-
-			private TalkMessageParser mParser = null;
-			private HttpURLConnection mConnection = null;
 		});
+	}
 
-		setReadyState(ReadyState.OPEN);
-		mtPoll.start();
+	/**
+	 * Open a new long-poll request to the "/bind" endpoint
+	 * @return true if the back channel was opened, false if it failed and the channel
+	 *         should {@link #reconnect()}
+	 */
+	boolean openBackChannel() {
+		try {
+			HttpGetBuilder getBuilder = getBindUrl(true);
+			getBuilder.addParameter("CI", "0");
+			getBuilder.addParameter("AID", mMessageId);
+			getBuilder.addParameter("TYPE", "xmlhttp");
+			// getBuilder.addParameter("RID", "rpc");
+
+			mBackChannelOpenTime = mMetrics.startTimer();
+			mBackChannelConnection = ConnectionPool.track(acceptCompressed(getBuilder.build()));
+			ChannelHub hub = mHub;
+			if (hub != null) {
+				// Bounds how long a hub worker waits for this request
+				mBackChannelConnection.setReadTimeout(hub.getReadTimeout());
+			}
+			mBackChannelParser = new TalkMessageParser(mBackChannelConnection, mMetrics);
+			mBackChannelReadTime = System.currentTimeMillis();
+			return true;
+		} catch (IOException | ChannelException e) {
+			if (mBackChannelConnection != null) {
+				ConnectionPool.discard(mBackChannelConnection);
+				mBackChannelConnection = null;
+			}
+			return false;
+		}
 	}
 
 	/**
-	 * Used each time we receive a message on the Production side, filters garbage data
-	 * from actual data
-	 * @param msg google talk message
+	 * @return true if a long-poll request is open
+	 */
+	boolean isBackChannelOpen() {
+		return mBackChannelParser != null;
+	}
+
+	/**
+	 * @return true if the open long-poll request has data that can be read without
+	 *         waiting for the server
 	 */
-	private void handleMessage(TalkMessage msg) {
+	boolean isBackChannelReady() {
+		return mBackChannelParser != null && mBackChannelParser.isReady();
+	}
+
+	/**
+	 * @return true if part of a submission has been read from the open long-poll request
+	 *         but not the rest
+	 */
+	boolean isBackChannelInSubmission() {
+		return mBackChannelParser != null && mBackChannelParser.isInSubmission();
+	}
+
+	/**
+	 * @return milliseconds since something was last read from the open long-poll request
+	 */
+	long getBackChannelIdleTime() {
+		return System.currentTimeMillis() - mBackChannelReadTime;
+	}
+
+	/**
+	 * Read and handle the next submission from the open long-poll request. Blocks until
+	 * the submission has arrived, parsing it as it arrives. Closes the request if the
+	 * server has ended it.
+	 * @throws ChannelException if the submission couldn't be parsed
+	 */
+	void readBackChannel() throws ChannelException {
+		boolean handled = readBackChannel(true);
+		while (!handled) {
+			handled = readBackChannel(true);
+		}
+	}
+
+	/**
+	 * Read the part of the next submission that has arrived on the open long-poll request,
+	 * and handle the submission once it's complete. Closes the request if the server has
+	 * ended it.
+	 * @param block true to wait for the server if nothing new has arrived, at most for the
+	 *        read timeout of the request, false to only read what can be read without
+	 *        blocking
+	 * @return true if a submission was handled or the request was closed, false if the
+	 *         rest of the submission hasn't arrived yet
+	 * @throws ChannelException if the submission couldn't be parsed
+	 */
+	boolean readBackChannel(boolean block) throws ChannelException {
+		if (!mBackChannelParser.isInSubmission()) {
+			mBackChannelMessage.reset(mSessionId, getCallbacks() instanceof ChannelViewService);
+		}
+
+		long readCount = mBackChannelParser.getReadCount();
+		int result = mBackChannelParser.pollMessage(mBackChannelMessage, block);
+		if (result == TalkMessageParser.MESSAGE_PARTIAL) {
+			if (mBackChannelParser.getReadCount() != readCount) {
+				mBackChannelReadTime = System.currentTimeMillis();
+			}
+			return false;
+		} else if (result == TalkMessageParser.MESSAGE_COMPLETE) {
+			if (!isOpen()) {
+				// Closed while waiting, leave the messages to whoever resumes the session
+				return true;
+			}
+			mBackChannelReadTime = System.currentTimeMillis();
+			mMetrics.recordSubmission();
+			if (mReconnectAttempts > 0) {
+				mReconnectAttempts = 0;
+				mReconnectBackoff.reset();
+			}
+			handleMessage(mBackChannelMessage);
+		} else {
+			// The server ended the request, so the connection can be reused
+			mMetrics.recordLongPoll(mBackChannelOpenTime);
+			mBackChannelParser.release();
+			mBackChannelParser = null;
+			mBackChannelConnection = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Close the open long-poll request, if any. The connection can't be reused since the
+	 * server is still holding the request open.
+	 */
+	void closeBackChannel() {
+		if (mBackChannelParser != null) {
+			mMetrics.recordLongPoll(mBackChannelOpenTime);
+			mBackChannelParser.close();
+			mBackChannelParser = null;
+		}
+		if (mBackChannelConnection != null) {
+			ConnectionPool.discard(mBackChannelConnection);
+			mBackChannelConnection = null;
+		}
+	}
+
+	/**
+	 * Count a failed long-poll request and get the delay before the channel should try to
+	 * {@link #reconnect()}
+	 * @return milliseconds to wait before reconnecting, -1 if all reconnect attempts have
+	 *         been used and the channel should fail
+	 */
+	long nextReconnectDelay() {
+		mMetrics.recordError();
+		if (mReconnectAttempts >= mReconnectAttemptsMax) {
+			return -1;
+		}
+		mReconnectAttempts++;
+		return mReconnectBackoff.next();
+	}
+
+	/**
+	 * Reconnect after the long-poll request failed. First tries to resume the bind session
+	 * with the known SID and AID, which the server allows as long as it still knows the
+	 * session. If the server has dropped the session a new one is set up with the full
+	 * handshake.
+	 * @return true if a new long-poll request was opened
+	 */
+	boolean reconnect() {
+		closeBackChannel();
+
+		if (openBackChannel()) {
+			mResumeCount.incrementAndGet();
+			mMetrics.recordReconnect();
+			return true;
+		}
+
 		try {
-			List<TalkMessage.TalkMessageEntry> entries = msg.getEntries();
-			msg = entries.get(0).getMessageValue();
+			mSid = null;
+			mRequestId = 0;
+			mMessageId = 1;
+			initialize();
+			fetchSid();
+			connect();
+		} catch (ChannelException e) {
+			return false;
+		}
 
-			entries = msg.getEntries();
-			mMessageId = entries.get(0).getNumberValue();
+		if (openBackChannel()) {
+			mHandshakeCount.incrementAndGet();
+			mMetrics.recordReconnect();
+			return true;
+		}
+		return false;
+	}
 
-			msg = entries.get(1).getMessageValue();
-			entries = msg.getEntries();
+	/**
+	 * Sets how the production long-poll reconnects when its request fails. The delay
+	 * before the first attempt is the min interval, and it doubles with each failed
+	 * attempt up to the max interval. Each delay is randomized by +-50% so that clients
+	 * that lost their connection at the same time don't reconnect at the same time. The
+	 * channel is closed with an error once all attempts have failed. Defaults to
+	 * {@value #RECONNECT_ATTEMPTS_DEFAULT} attempts between
+	 * {@value #RECONNECT_INTERVAL_MIN_MS_DEFAULT} and
+	 * {@value #RECONNECT_INTERVAL_MAX_MS_DEFAULT} ms apart.
+	 * @param maxAttempts max number of attempts in a row, 0 closes the channel on the
+	 *        first error
+	 * @param minInterval delay in milliseconds before the first attempt
+	 * @param maxInterval max delay in milliseconds between attempts
+	 */
+	public void setReconnectPolicy(int maxAttempts, long minInterval, long maxInterval) {
+		mReconnectBackoff.setIntervals(minInterval, maxInterval);
+		mReconnectAttemptsMax = maxAttempts;
+	}
 
-			if (entries.get(0).getKind() == TalkMessage.MessageEntryKind.ME_STRING && entries.get(0).getStringValue().equals("c")) {
-				msg = entries.get(1).getMessageValue();
-				entries = msg.getEntries();
+	/**
+	 * @return number of times the long-poll reconnected by resuming the bind session,
+	 *         including opening with an imported session
+	 */
+	public long getSessionResumeCount() {
+		return mResumeCount.get();
+	}
 
-				String thisSessionID = entries.get(0).getStringValue();
-				if (!thisSessionID.equals(mSessionId)) {
-					mSessionId = thisSessionID;
-				}
+	/**
+	 * @return number of times the long-poll had to reconnect with a full handshake
+	 */
+	public long getReconnectHandshakeCount() {
+		return mHandshakeCount.get();
+	}
 
-				msg = entries.get(1).getMessageValue();
-				entries = msg.getEntries();
+	/**
+	 * Report an error on the long-poll request and close the channel
+	 * @param e the error
+	 */
+	void failBackChannel(ChannelException e) {
+		closeBackChannel();
+		getCallbacks().onError(500, e.getMessage());
+
+		// Close the connection.
+		try {
+			close();
+		} catch (IOException e1) {
+			// Does nothing
+		}
+	}
+
+	/**
+	 * Report an exception thrown by the listener to its onError, so it isn't lost. If
+	 * onError throws as well, the exception goes to the uncaught exception handler of the
+	 * thread.
+	 * @param e the exception
+	 */
+	void reportListenerException(RuntimeException e) {
+		reportListenerException(getCallbacks(), e);
+	}
 
-				if (entries.get(0).getStringValue().equalsIgnoreCase("ae")) {
-					String msgValue = entries.get(1).getStringValue();
-					mChannelListener.onMessage(msgValue);
+	/**
+	 * Report an exception thrown by a listener to its onError, so it isn't lost. If
+	 * onError throws as well, the exception goes to the uncaught exception handler of the
+	 * thread.
+	 * @param listener the listener that threw
+	 * @param e the exception
+	 */
+	static void reportListenerException(ChannelService listener, RuntimeException e) {
+		try {
+			listener.onError(500, "Listener threw " + e);
+		} catch (RuntimeException e1) {
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+		}
+	}
+
+	/**
+	 * Used each time we receive a message on the Production side, filters garbage data
+	 * from actual data
+	 * @param message values extracted from the google talk message
+	 */
+	void handleMessage(BindMessageExtractor message) {
+		// A replayed submission must not move the AID back
+		if (message.hasMessageId()) {
+			mMessageId = Math.max(mMessageId, message.getMessageId());
+		}
+
+		mSessionId = message.getSessionId();
+
+		int count = message.getPayloadCount();
+		if (count > 0) {
+			mMetrics.recordMessages(count);
+			ChannelService callbacks = getCallbacks();
+			if (callbacks instanceof ChannelViewService) {
+				for (int i = 0; i < count; i++) {
+					((ChannelViewService) callbacks).onMessageView(message.getPayloadView(i));
 				}
+			} else {
+				deliverMessages(message.getPayloads());
+			}
+		}
+	}
+
+	/**
+	 * Pass messages to the listener, in one call if it's a {@link BatchChannelService}
+	 * @param messages the messages in order, not kept
+	 */
+	private void deliverMessages(List<String> messages) {
+		ChannelService callbacks = getCallbacks();
+		if (callbacks instanceof ChannelViewService) {
+			for (String message : messages) {
+				((ChannelViewService) callbacks).onMessageView(message);
+			}
+		} else if (callbacks instanceof BatchChannelService) {
+			((BatchChannelService) callbacks).onMessages(new ArrayList<String>(messages));
+		} else {
+			for (String message : messages) {
+				callbacks.onMessage(message);
 			}
-		} catch (InvalidMessageException e) {
-			e.printStackTrace();
 		}
 	}
 
@@ -508,18 +1004,35 @@ public class ChannelAPI {
 		return mReadyState;
 	}
 
+	/**
+	 * @return true if the channel is open and should keep polling
+	 */
+	boolean isOpen() {
+		return getReadyState() == ReadyState.OPEN;
+	}
+
 	/**
 	 * Close the Channel, Channel is gone from the server now, a new Channel is required
 	 * if you wish to reconnect, you can't re-use the old one
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
-		if (isProduction()) {
-			setReadyState(ReadyState.CLOSED);
-			mChannelListener.onClose();
-		} else {
-			setReadyState(ReadyState.CLOSING);
-			disconnect(sendGet(getUrl("disconnect")));
+		shutdownOutboundQueue();
+
+		try {
+			if (isProduction()) {
+				setReadyState(ReadyState.CLOSED);
+				getCallbacks().onClose();
+			} else {
+				setReadyState(ReadyState.CLOSING);
+				disconnect(sendGet(getUrl("disconnect")));
+			}
+		} finally {
+			// Delivers the close callback and lets the dispatch thread stop
+			ListenerDispatcher dispatcher = mDispatcher;
+			if (dispatcher != null) {
+				dispatcher.shutdown();
+			}
 		}
 	}
 
@@ -548,13 +1061,13 @@ public class ChannelAPI {
 		if (xhr.isSuccess()) {
 			mClientId = xhr.getResponseText();
 			setReadyState(ReadyState.OPEN);
-			mChannelListener.onOpen();
+			getCallbacks().onOpen();
 			poll();
 		} else {
 			setReadyState(ReadyState.CLOSING);
-			mChannelListener.onError(xhr.getStatus(), xhr.getStatusText());
+			getCallbacks().onError(xhr.getStatus(), xhr.getStatusText());
 			setReadyState(ReadyState.CLOSED);
-			mChannelListener.onClose();
+			getCallbacks().onClose();
 		}
 	}
 
@@ -564,22 +1077,27 @@ public class ChannelAPI {
 	 */
 	private void disconnect(HttpNiceResponse xhr) {
 		setReadyState(ReadyState.CLOSED);
-		mChannelListener.onClose();
+		getCallbacks().onClose();
 	}
 
 	/**
 	 * @param response
+	 * @return true if a message was forwarded to the listener
 	 */
-	private void forwardMessage(HttpNiceResponse response) {
+	private boolean forwardMessage(HttpNiceResponse response) {
 		if (response.isSuccess()) {
 			String data = chomp(response.getResponseText());
 			if (data != null && !data.isEmpty()) {
-				mChannelListener.onMessage(data);
+				mMetrics.recordMessage();
+				deliverMessages(Collections.singletonList(data));
+				return true;
 			}
 		} else {
-			mChannelListener.onError(response.getStatus(), response.getStatusText());
+			mMetrics.recordError();
+			getCallbacks().onError(response.getStatus(), response.getStatusText());
 			setReadyState(ReadyState.ERROR);
 		}
+		return false;
 	}
 
 	/**
@@ -588,9 +1106,9 @@ public class ChannelAPI {
 	 * @param message the message to chomp
 	 * @return string without newline, null if null String input
 	 */
-	private String chomp(String message) {
-		if (message == null) {
-			return null;
+	static String chomp(String message) {
+		if (message == null || message.isEmpty()) {
+			return message;
 		}
 
 		int length = message.length();
@@ -598,7 +1116,7 @@ public class ChannelAPI {
 		int penultimateIndex = length - 2;
 		if (message.charAt(lastIndex) == '\n') {
 			// Check for "\r\n"
-			if (message.charAt(penultimateIndex) == '\r') {
+			if (penultimateIndex >= 0 && message.charAt(penultimateIndex) == '\r') {
 				return message.substring(0, penultimateIndex);
 			}
 			// Just '\n'
@@ -618,24 +1136,172 @@ public class ChannelAPI {
 	 * Grabbing Data "DEV"
 	 */
 	private void poll() {
-		if (mtPoll == null) {
-			mtPoll = new Thread(new Runnable() {
+		if (mHub != null) {
+			mHub.poll(this);
+			return;
+		}
+
+		startPollTask(new Runnable() {
+			@Override
+			public void run() {
+				while (isOpen() && !Thread.currentThread().isInterrupted()) {
+					long delay;
+					try {
+						delay = pollDevelopment();
+					} catch (RuntimeException e) {
+						delay = backOffDevelopmentPoll();
+					}
+					if (delay > 0 && !sleep(delay)) {
+						break;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sleep until the time has passed or the thread is interrupted
+	 * @param millis
+	 * @return false if the thread was interrupted, its interrupt flag is set again so the
+	 *         caller can stop
+	 */
+	private static boolean sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
 
+	/**
+	 * Run the poll loop on the poll executor unless it's already running
+	 * @param pollLoop the poll loop, should return when the channel is no longer open
+	 */
+	private void startPollTask(final Runnable pollLoop) {
+		if (!mPolling.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			mPollExecutor.execute(new Runnable() {
 				@Override
 				public void run() {
-					while (getReadyState() == ReadyState.OPEN) {
-						try {
-							HttpNiceResponse response = sendGet(getUrl("poll"));
-							forwardMessage(response);
-							Thread.sleep(TIMEOUT_MS);
-						} catch (Exception e) {
-							// Does nothing
-						}
+					try {
+						pollLoop.run();
+					} finally {
+						mPolling.set(false);
 					}
 				}
 			});
-			mtPoll.start();
+		} catch (RejectedExecutionException e) {
+			mPolling.set(false);
+			getCallbacks().onError(500, "Poll executor rejected the poll task");
+		}
+	}
+
+	/**
+	 * Sets the executor that runs the blocking poll loop of this channel. The loop runs
+	 * until the channel is closed or its thread is interrupted, e.g. by shutdownNow(), so
+	 * the executor must be able to run it on a thread of its own. An interrupt stops the
+	 * loop once its current request returns. Defaults to starting a new platform thread.
+	 * Has no effect on channels polled by a {@link ChannelHub}.
+	 * @param executor runs the poll loop
+	 * @see PollThreads
+	 */
+	public void setPollExecutor(Executor executor) {
+		if (executor != null) {
+			mPollExecutor = executor;
+		}
+	}
+
+	/**
+	 * Run the poll loop on a new thread from the specified factory. Use
+	 * {@link PollThreads#virtual(String)} to run it on a virtual thread.
+	 * @param threadFactory creates the poll thread
+	 */
+	public void setPollThreadFactory(ThreadFactory threadFactory) {
+		if (threadFactory != null) {
+			mPollExecutor = PollThreads.perTask(threadFactory);
+		}
+	}
+
+	/**
+	 * Make one poll request to the development server and forward its messages
+	 * @return milliseconds to wait before the next poll. 0 if a message was received,
+	 *         since more are likely to follow, otherwise a delay that grows while the
+	 *         channel is quiet.
+	 */
+	long pollDevelopment() {
+		boolean received = false;
+		try {
+			mDevPollCount.incrementAndGet();
+			long startTime = mMetrics.startTimer();
+			HttpGetBuilder getBuilder = new HttpGetBuilder(getUrl("poll"));
+			HttpURLConnection connection = ConnectionPool.track(acceptCompressed(getBuilder.build()));
+			HttpNiceResponse response = new HttpNiceResponse(connection, mMetrics);
+			mMetrics.recordDevelopmentPoll(startTime);
+			received = forwardMessage(response);
+		} catch (IOException e) {
+			// Retry after the backoff delay
+			mMetrics.recordError();
+		}
+
+		if (received) {
+			mDevPollBackoff.reset();
+			mDevPollInterval = 0;
+			return 0;
 		}
+		mDevEmptyPollCount.incrementAndGet();
+		return backOffDevelopmentPoll();
+	}
+
+	/**
+	 * Back off after a development poll that didn't return a message
+	 * @return milliseconds to wait before the next poll
+	 */
+	long backOffDevelopmentPoll() {
+		long delay = mDevPollBackoff.next();
+		mDevPollInterval = delay;
+		return delay;
+	}
+
+	/**
+	 * Sets how often the development server is polled. The channel polls again right
+	 * away after receiving a message. While it's quiet the delay starts at the min
+	 * interval and doubles after every empty poll, up to the max interval. Each delay is
+	 * randomized by +-20% so that many clients don't poll in lockstep. Defaults to
+	 * {@value #DEV_POLL_INTERVAL_MIN_MS_DEFAULT} and
+	 * {@value #DEV_POLL_INTERVAL_MAX_MS_DEFAULT} ms.
+	 * @param minInterval delay in milliseconds before the first poll that follows an
+	 *        empty poll
+	 * @param maxInterval max delay in milliseconds between polls
+	 */
+	public void setDevelopmentPollInterval(long minInterval, long maxInterval) {
+		mDevPollBackoff.setIntervals(minInterval, maxInterval);
+	}
+
+	/**
+	 * @return milliseconds the development poll loop waited (or is waiting) after the last
+	 *         poll
+	 */
+	public long getDevelopmentPollInterval() {
+		return mDevPollInterval;
+	}
+
+	/**
+	 * @return number of requests made to the development server's poll command
+	 */
+	public long getDevelopmentPollCount() {
+		return mDevPollCount.get();
+	}
+
+	/**
+	 * @return number of development polls that didn't return a message
+	 */
+	public long getDevelopmentEmptyPollCount() {
+		return mDevEmptyPollCount.get();
 	}
 
 	/**
@@ -644,7 +1310,8 @@ public class ChannelAPI {
 	 */
 	private void forwardSendComplete(HttpNiceResponse response) {
 		if (!response.isSuccess()) {
-			mChannelListener.onError(response.getStatus(), response.getStatusText());
+			mMetrics.recordError();
+			getCallbacks().onError(response.getStatus(), response.getStatusText());
 		}
 	}
 
@@ -659,16 +1326,247 @@ public class ChannelAPI {
 		if (getReadyState() != ReadyState.OPEN) {
 			return false;
 		}
+		forwardSendComplete(post(message, urlPattern));
+
+		return true;
+	}
+
+	/**
+	 * Encode a message with a codec and send it like {@link #send(String, String)}
+	 * @param <T> type of the message
+	 * @param message
+	 * @param codec encodes the message, e.g. {@link JsonCodec#INSTANCE}
+	 * @param urlPattern - where the server should look for the message. ex: "/chat"
+	 * @return true if the message was sent, false if the channel isn't open
+	 * @throws IOException if the message couldn't be encoded or sent
+	 */
+	public <T> boolean send(T message, MessageCodec<T> codec, String urlPattern) throws IOException {
+		return send(codec.encode(message), urlPattern);
+	}
+
+	/**
+	 * Send bytes to the server as the request body, compressed if the send format is
+	 * {@link SendFormat#DEFLATE}. The channel key is sent as the "channelKey" query
+	 * parameter.
+	 * @param body the message
+	 * @param contentType content type of the body, e.g. "application/octet-stream"
+	 * @param urlPattern - where the server should look for the message. ex: "/chat"
+	 * @return true if the message was sent, false if the channel isn't open
+	 * @throws IOException
+	 */
+	public boolean send(byte[] body, String contentType, String urlPattern) throws IOException {
+		if (getReadyState() != ReadyState.OPEN) {
+			return false;
+		}
+		forwardSendComplete(postBody(null, body, contentType, urlPattern));
+
+		return true;
+	}
+
+	/**
+	 * Sets how {@link #send(String, String)} and {@link #sendAsync(String, String)} put a
+	 * message in the request. {@link SendFormat#RAW} and {@link SendFormat#DEFLATE}
+	 * stream the message as the body instead of form encoding it, and DEFLATE compresses
+	 * messages of 1024 characters or more. The server
+	 * has to read the body, like ChatServlet in the GAE example does. Batches from
+	 * {@link #setOutboundBatching(int, int, long)} are always form encoded. Defaults to
+	 * {@link SendFormat#FORM}.
+	 * @param sendFormat
+	 */
+	public void setSendFormat(SendFormat sendFormat) {
+		if (sendFormat != null) {
+			mSendFormat = sendFormat;
+		}
+	}
+
+	/**
+	 * @return how messages are put in the request
+	 */
+	public SendFormat getSendFormat() {
+		return mSendFormat;
+	}
+
+	/**
+	 * Queue a message to be sent to the server by the outbound I/O workers, without
+	 * waiting for the server. Errors are reported to the channel listener just like
+	 * {@link #send(String, String)}. Messages are sent in order unless the outbound queue
+	 * has been configured with more than one worker.
+	 * @param message
+	 * @param urlPattern - where the server should look for the message. ex: "/chat"
+	 * @return future HTTP status of the response. Fails with a ChannelException if the
+	 *         channel isn't open or has been closed and with a RejectedExecutionException
+	 *         if the message couldn't be queued. Is cancelled if the message was dropped
+	 *         from the queue or the channel was closed before it was sent.
+	 * @see #setOutboundQueue(int, int, OverflowPolicy)
+	 */
+	public Future<Integer> sendAsync(String message, String urlPattern) {
+		OutboundQueue outboundQueue = getReadyState() == ReadyState.OPEN ? getOutboundQueue() : null;
+		if (outboundQueue == null) {
+			FutureTask<Integer> failed = new FutureTask<Integer>(new Callable<Integer>() {
+				@Override
+				public Integer call() throws ChannelException {
+					throw new ChannelException("Channel isn't open");
+				}
+			});
+			failed.run();
+			return failed;
+		}
+
+		return outboundQueue.submit(message, urlPattern);
+	}
+
+	/**
+	 * Configure the queue used by {@link #sendAsync(String, String)}. Messages still
+	 * waiting in the current queue are cancelled, batching settings are kept. Defaults to
+	 * a queue of {@value #OUTBOUND_CAPACITY_DEFAULT} messages with one worker that blocks
+	 * the caller when the queue is full.
+	 * @param capacity max number of messages waiting to be sent
+	 * @param workerCount number of threads sending messages. Messages are only sent in
+	 *        order when there is a single worker.
+	 * @param overflowPolicy what to do when the queue is full
+	 * @throws IllegalStateException if the channel has been closed
+	 */
+	public synchronized void setOutboundQueue(int capacity, int workerCount, OverflowPolicy overflowPolicy) {
+		if (mOutboundClosed) {
+			throw new IllegalStateException("Channel has been closed");
+		}
+		OutboundQueue outboundQueue = new OutboundQueue(capacity, workerCount, overflowPolicy, OUTBOUND_THREAD_FACTORY, mSender);
+		outboundQueue.setBatching(mBatchMaxMessages, mBatchMaxLength, mBatchLingerMs);
+		if (mOutboundQueue != null) {
+			mOutboundQueue.shutdown();
+		}
+		mOutboundQueue = outboundQueue;
+	}
+
+	/**
+	 * Let {@link #sendAsync(String, String)} send several messages in one request. A
+	 * batch contains consecutive messages for the same URL pattern and is sent once it's
+	 * full or its first message has waited for the linger time. A batch is posted with
+	 * the parameters "channelKey", "count" and "message0" to "message&lt;count-1&gt;", so
+	 * the server needs to handle that format, see ChatBatchServlet in the GAE example,
+	 * which accepts at most 500 messages per batch. A batch with a single message is sent
+	 * just like {@link #send(String, String)}.
+	 * @param maxMessages max number of messages in a batch, 1 disables batching
+	 * @param maxLength a batch is sent once the total length of its messages reaches this
+	 *        many characters
+	 * @param lingerMs max time in milliseconds to wait for more messages before sending a
+	 *        batch that isn't full
+	 */
+	public synchronized void setOutboundBatching(int maxMessages, int maxLength, long lingerMs) {
+		OutboundQueue outboundQueue = getOutboundQueue();
+		if (outboundQueue != null) {
+			outboundQueue.setBatching(maxMessages, maxLength, lingerMs);
+		}
+		mBatchMaxMessages = maxMessages;
+		mBatchMaxLength = maxLength;
+		mBatchLingerMs = lingerMs;
+	}
+
+	/**
+	 * @return number of messages waiting to be sent by {@link #sendAsync(String, String)}
+	 */
+	public synchronized int getOutboundQueueSize() {
+		return mOutboundQueue != null ? mOutboundQueue.size() : 0;
+	}
+
+	/**
+	 * @return the outbound queue, created with default settings if it doesn't exist. Null
+	 *         once the channel has been closed.
+	 */
+	private synchronized OutboundQueue getOutboundQueue() {
+		if (mOutboundQueue == null && !mOutboundClosed) {
+			mOutboundQueue = new OutboundQueue(OUTBOUND_CAPACITY_DEFAULT, 1, OverflowPolicy.BLOCK, OUTBOUND_THREAD_FACTORY, mSender);
+			mOutboundQueue.setBatching(mBatchMaxMessages, mBatchMaxLength, mBatchLingerMs);
+		}
+		return mOutboundQueue;
+	}
+
+	/**
+	 * Stop the outbound queue and cancel the messages that haven't been sent. The queue
+	 * isn't recreated afterwards.
+	 */
+	private synchronized void shutdownOutboundQueue() {
+		mOutboundClosed = true;
+		if (mOutboundQueue != null) {
+			mOutboundQueue.shutdown();
+			mOutboundQueue = null;
+		}
+	}
+
+	/**
+	 * POST a message to the server
+	 * @param message
+	 * @param urlPattern - where the server should look for the message. ex: "/chat"
+	 * @return response from the server
+	 * @throws IOException
+	 */
+	private HttpNiceResponse post(String message, String urlPattern) throws IOException {
+		if (mSendFormat != SendFormat.FORM) {
+			return postBody(message, null, TEXT_CONTENT_TYPE, urlPattern);
+		}
+
 		String url = mBaseUrl + urlPattern;
 
 		HttpPostBuilder postBuilder = new HttpPostBuilder(url);
 		postBuilder.addParameter("channelKey", mApplicationKey);
 		postBuilder.addParameter("message", message);
-		HttpURLConnection connection = postBuilder.build();
-		HttpNiceResponse niceResponse = new HttpNiceResponse(connection);
-		forwardSendComplete(niceResponse);
+		long startTime = mMetrics.startTimer();
+		HttpURLConnection connection = ConnectionPool.track(postBuilder.build());
+		HttpNiceResponse response = new HttpNiceResponse(connection);
+		mMetrics.recordSend(startTime, 1);
+		return response;
+	}
 
-		return true;
+	/**
+	 * POST a message to the server as the request body, streamed and compressed depending
+	 * on the send format
+	 * @param text the message as text, null if it's bytes
+	 * @param bytes the message as bytes, null if it's text
+	 * @param contentType
+	 * @param urlPattern - where the server should look for the message. ex: "/chat"
+	 * @return response from the server
+	 * @throws IOException
+	 */
+	private HttpNiceResponse postBody(CharSequence text, byte[] bytes, String contentType, String urlPattern) throws IOException {
+		HttpGetBuilder urlBuilder = new HttpGetBuilder(mBaseUrl + urlPattern);
+		urlBuilder.addParameter("channelKey", mApplicationKey);
+		boolean compress = mSendFormat == SendFormat.DEFLATE;
+
+		long startTime = mMetrics.startTimer();
+		HttpURLConnection connection = ConnectionPool.track(urlBuilder.build());
+		long byteCount;
+		if (text != null) {
+			byteCount = RequestBody.write(connection, text, contentType, compress);
+		} else {
+			byteCount = RequestBody.write(connection, bytes, contentType, compress);
+		}
+		HttpNiceResponse response = new HttpNiceResponse(connection);
+		mMetrics.recordSend(startTime, 1);
+		mMetrics.recordBytesSent(byteCount);
+		return response;
+	}
+
+	/**
+	 * POST several messages to the server in one request
+	 * @param messages
+	 * @param urlPattern - where the server should look for the messages. ex: "/chat-batch"
+	 * @return response from the server
+	 * @throws IOException
+	 */
+	private HttpNiceResponse postBatch(List<String> messages, String urlPattern) throws IOException {
+		String url = mBaseUrl + urlPattern;
+
+		HttpPostBuilder postBuilder = new HttpPostBuilder(url);
+		postBuilder.addParameter("channelKey", mApplicationKey);
+		postBuilder.addParameter("count", String.valueOf(messages.size()));
+		for (int i = 0; i < messages.size(); i++) {
+			postBuilder.addParameter("message" + i, messages.get(i));
+		}
+		long startTime = mMetrics.startTimer();
+		HttpURLConnection connection = ConnectionPool.track(postBuilder.build());
+		HttpNiceResponse response = new HttpNiceResponse(connection);
+		mMetrics.recordSend(startTime, messages.size());
+		return response;
 	}
 
 	/**
@@ -680,22 +1578,130 @@ public class ChannelAPI {
 	 */
 	private HttpNiceResponse sendGet(String url) throws MalformedURLException, IOException {
 		HttpGetBuilder getBuilder = new HttpGetBuilder(url);
-		HttpURLConnection connection = getBuilder.build();
-		HttpNiceResponse response = new HttpNiceResponse(connection);
-		connection.disconnect();
-		return response;
+		HttpURLConnection connection = ConnectionPool.track(getBuilder.build());
+		return new HttpNiceResponse(connection);
 	}
 
 	/**
 	 * Set a new ChannelListener
 	 * @param channelListener
 	 */
-	public void setChannelListener(ChannelService channelListener) {
+	public synchronized void setChannelListener(ChannelService channelListener) {
 		if (channelListener != null) {
 			mChannelListener = channelListener;
+			if (mDispatcher != null) {
+				mDispatcher.setListener(channelListener);
+			}
+		}
+	}
+
+	/**
+	 * Deliver the listener callbacks from a dispatch thread instead of the poll thread, so
+	 * a slow listener doesn't hold up reading from the server. Callbacks are queued and
+	 * delivered in order. When the queue is full, {@link OverflowPolicy#BLOCK} makes the
+	 * poll thread wait, {@link OverflowPolicy#DROP_OLDEST} drops the oldest queued
+	 * message, and {@link OverflowPolicy#FAIL_FAST} drops the new message and reports
+	 * the dropped messages to onError with error code 503. The poll thread waits at most
+	 * a second for room, also for open, close and error callbacks, so a hung listener
+	 * can't stall it. A callback that is still waiting then, or whose thread is
+	 * interrupted, is dropped and reported the same way. Callbacks already queued are
+	 * still delivered when the queue is replaced. The dispatch thread is a daemon thread. It stops when it
+	 * has been idle for a few seconds and is started again when needed, and stops once
+	 * the queue is empty after {@link #close()}. An exception thrown by the listener is
+	 * reported to its onError.
+	 * @param capacity max number of callbacks waiting to be delivered, 0 calls the
+	 *        listener directly from the poll thread (default)
+	 * @param overflowPolicy what to do with a new message when the queue is full
+	 */
+	public synchronized void setDispatchQueue(int capacity, OverflowPolicy overflowPolicy) {
+		ListenerDispatcher dispatcher = null;
+		if (capacity > 0) {
+			dispatcher = new ListenerDispatcher(capacity, overflowPolicy, DISPATCH_THREAD_FACTORY, mChannelListener);
+		}
+		if (mDispatcher != null) {
+			mDispatcher.shutdown();
+		}
+		mDispatcher = dispatcher;
+	}
+
+	/**
+	 * @return number of callbacks waiting to be delivered by the dispatch queue
+	 */
+	public int getDispatchQueueSize() {
+		ListenerDispatcher dispatcher = mDispatcher;
+		return dispatcher != null ? dispatcher.size() : 0;
+	}
+
+	/**
+	 * @return number of messages the dispatch queue dropped because it was full
+	 */
+	public long getDroppedMessageCount() {
+		ListenerDispatcher dispatcher = mDispatcher;
+		return dispatcher != null ? dispatcher.getDroppedCount() : 0;
+	}
+
+	/**
+	 * Start recording metrics for this channel and register them as a JMX MBean, see
+	 * {@link ChannelMetrics}. Metrics are disabled by default. The metrics are registered
+	 * without JMX if the platform doesn't support it.
+	 * @param name unique name of the channel in JMX, null to not register the metrics
+	 * @return the metrics of this channel
+	 * @throws IllegalArgumentException if the metrics couldn't be registered, e.g. if the
+	 *         name is already taken
+	 */
+	public synchronized ChannelMetrics enableMetrics(String name) {
+		disableMetrics();
+
+		ChannelMetrics metrics = ChannelMetrics.newChannelMetrics();
+		if (name != null) {
+			try {
+				MetricsRegistration.register(name, metrics);
+				mMetricsName = name;
+			} catch (LinkageError e) {
+				// No JMX on this platform
+			}
+		}
+		mMetrics = metrics;
+		return metrics;
+	}
+
+	/**
+	 * Stop recording metrics for this channel and unregister its MBean
+	 */
+	public synchronized void disableMetrics() {
+		mMetrics = ChannelMetrics.DISABLED;
+		if (mMetricsName != null) {
+			MetricsRegistration.unregister(mMetricsName);
+			mMetricsName = null;
 		}
 	}
 
+	/**
+	 * @return metrics of this channel, disabled unless {@link #enableMetrics(String)} has
+	 *         been called
+	 */
+	public ChannelMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * @return where callbacks should be sent, the dispatch queue if there is one,
+	 *         otherwise the listener
+	 */
+	private ChannelService getCallbacks() {
+		ListenerDispatcher dispatcher = mDispatcher;
+		return dispatcher != null ? dispatcher : mChannelListener;
+	}
+
+	/**
+	 * Poll using a shared hub instead of a thread for this channel. Called by
+	 * {@link ChannelHub#add(ChannelAPI)}.
+	 * @param hub the hub that polls this channel
+	 */
+	void setHub(ChannelHub hub) {
+		mHub = hub;
+	}
+
 	/**
 	 * @return randomized string
 	 */
@@ -0,0 +1,326 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.ChannelException;
+
+/**
+ * Polls many channels from a small, fixed pool of I/O workers instead of one thread per
+ * {@link ChannelAPI}. Each channel still gets its callbacks on its own
+ * {@link ChannelService}. Usage:
+ *
+ * <pre>
+ * ChannelHub hub = new ChannelHub(4);
+ * ChannelAPI channel = new ChannelAPI(url, key, service);
+ * hub.add(channel);
+ * channel.open();
+ * </pre>
+ *
+ * In production the workers take turns reading from the open long-poll requests. A worker
+ * waits for one request at most for the read timeout and then moves on to the next
+ * channel. The wait is a blocking read, since that is the only way to see data that has
+ * arrived on an HTTPS connection, or to see that the server has ended the response. While
+ * a worker waits on an idle channel it can't read any other channel, so a message can
+ * take up to about (number of channels / number of workers) * read timeout to be read.
+ * With 1000 channels on 4 workers and the default read timeout that is over a minute, and
+ * measured delivery latencies reached 40 seconds. Use enough workers to keep that bound
+ * acceptable, or poll with a thread per channel when most channels are idle and latency
+ * matters. The hub saves threads, not latency. A submission that is
+ * still arriving is parsed as far as it has arrived and continued on a later turn. A
+ * request the server has ended is replaced with a new one right away. A failed long-poll
+ * request is reconnected after a delay, without holding a worker while waiting.
+ * Development polls are scheduled on the same workers. An exception thrown by a listener
+ * is reported to its onError and doesn't stop the channel from being polled.
+ */
+public class ChannelHub {
+	/** Default time a worker waits for data on one long-poll request */
+	private static final int READ_TIMEOUT_MS_DEFAULT = 250;
+	/** Default time a long-poll request can be silent before it's replaced */
+	private static final long IDLE_TIMEOUT_MS_DEFAULT = 60000;
+	/** Default time the rest of a partly read submission can take to arrive */
+	private static final long STALL_TIMEOUT_MS_DEFAULT = 5000;
+	/** Max submissions to read from one channel before letting other channels run */
+	private static final int SUBMISSIONS_PER_TURN = 16;
+	private static final AtomicInteger mHubCount = new AtomicInteger();
+
+	private ScheduledThreadPoolExecutor mExecutor;
+	private Set<ChannelAPI> mChannels = Collections.newSetFromMap(new ConcurrentHashMap<ChannelAPI, Boolean>());
+	private Set<ChannelAPI> mPolling = Collections.newSetFromMap(new ConcurrentHashMap<ChannelAPI, Boolean>());
+	private volatile int mReadTimeout = READ_TIMEOUT_MS_DEFAULT;
+	private volatile long mIdleTimeout = IDLE_TIMEOUT_MS_DEFAULT;
+	private volatile long mStallTimeout = STALL_TIMEOUT_MS_DEFAULT;
+
+	/**
+	 * Create a hub with the specified number of I/O workers
+	 * @param workerCount number of threads that poll the channels
+	 */
+	public ChannelHub(int workerCount) {
+		this(workerCount, PollThreads.platform("ChannelHub-" + mHubCount.incrementAndGet() + "-io-", true));
+	}
+
+	/**
+	 * Create a hub with the specified number of I/O workers
+	 * @param workerCount number of threads that poll the channels
+	 * @param threadFactory creates the worker threads
+	 */
+	public ChannelHub(int workerCount, ThreadFactory threadFactory) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be at least 1, was " + workerCount);
+		}
+
+		mExecutor = new ScheduledThreadPoolExecutor(workerCount, threadFactory);
+	}
+
+	/**
+	 * Let this hub poll the channel. Has to be called before {@link ChannelAPI#open()}.
+	 * @param channel the channel to poll
+	 */
+	public void add(ChannelAPI channel) {
+		mChannels.add(channel);
+		channel.setHub(this);
+	}
+
+	/**
+	 * Stop polling the channel. The channel will poll using its own thread the next time
+	 * it's opened.
+	 * @param channel the channel to stop polling
+	 */
+	public void remove(ChannelAPI channel) {
+		if (mChannels.remove(channel)) {
+			channel.setHub(null);
+		}
+	}
+
+	/**
+	 * @return number of channels added to this hub
+	 */
+	public int getChannelCount() {
+		return mChannels.size();
+	}
+
+	/**
+	 * @return number of channels that are currently being polled
+	 */
+	public int getPollingCount() {
+		return mPolling.size();
+	}
+
+	/**
+	 * Sets how long a worker waits for data on one long-poll request before it moves on
+	 * to the next channel. A worker waits for one channel at a time, so a message to an
+	 * idle channel can take up to about (number of channels / number of workers) * read
+	 * timeout to be read. It's the read timeout of the long-poll request, so it also
+	 * bounds the wait for the connection to be set up and for the response to start. Lower
+	 * values go round the channels faster, but fail on slow networks. Applies to long-poll
+	 * requests opened after the call.
+	 * @param readTimeout timeout in milliseconds
+	 */
+	public void setReadTimeout(int readTimeout) {
+		if (readTimeout < 1) {
+			throw new IllegalArgumentException("readTimeout must be at least 1, was " + readTimeout);
+		}
+		mReadTimeout = readTimeout;
+	}
+
+	/**
+	 * @return how long a worker waits for data on one long-poll request, in milliseconds
+	 */
+	int getReadTimeout() {
+		return mReadTimeout;
+	}
+
+	/**
+	 * Sets how long a long-poll request can be silent before it's replaced with a new
+	 * one, in case the connection died without the server ending the response. Should be
+	 * longer than the interval the server sends keep-alive messages at.
+	 * @param idleTimeout timeout in milliseconds
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		mIdleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Sets how long the rest of a partly read submission can take to arrive before the
+	 * long-poll request is reconnected. The server sends a submission all at once, so a
+	 * submission that stops arriving usually means the connection is broken.
+	 * @param stallTimeout timeout in milliseconds
+	 */
+	public void setStallTimeout(long stallTimeout) {
+		mStallTimeout = stallTimeout;
+	}
+
+	/**
+	 * Stop all workers. Open channels stop receiving messages but aren't closed.
+	 */
+	public void shutdown() {
+		mExecutor.shutdownNow();
+	}
+
+	/**
+	 * Start polling a channel in production mode
+	 * @param channel an open channel
+	 */
+	void longPoll(ChannelAPI channel) {
+		if (mPolling.add(channel)) {
+			schedule(new LongPollTurn(channel), 0);
+		}
+	}
+
+	/**
+	 * Start polling a channel in development mode
+	 * @param channel an open channel
+	 */
+	void poll(ChannelAPI channel) {
+		if (mPolling.add(channel)) {
+			schedule(new DevelopmentPollTurn(channel), 0);
+		}
+	}
+
+	/**
+	 * Schedule a task on the workers unless the hub has been shut down
+	 * @param task
+	 * @param delay in milliseconds
+	 */
+	private void schedule(Runnable task, long delay) {
+		if (!mExecutor.isShutdown()) {
+			mExecutor.schedule(task, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * One turn of a production channel. Waits for the next submission at most for the read
+	 * timeout, reads the submissions that have arrived and schedules the next turn.
+	 */
+	private class LongPollTurn implements Runnable {
+		private ChannelAPI mChannel;
+		private boolean mReconnecting = false;
+		private ChannelException mError = null;
+
+		/**
+		 * @param channel the channel to poll
+		 */
+		LongPollTurn(ChannelAPI channel) {
+			mChannel = channel;
+		}
+
+		@Override
+		public void run() {
+			try {
+				poll();
+			} catch (RuntimeException e) {
+				// Thrown by the listener, the submission has been read so polling can go on
+				mChannel.reportListenerException(e);
+				schedule(this, 0);
+			}
+		}
+
+		/**
+		 * Read from the channel and schedule the next turn
+		 */
+		private void poll() {
+			if (!mChannel.isOpen()) {
+				mChannel.closeBackChannel();
+				mPolling.remove(mChannel);
+				return;
+			}
+
+			if (!mChannel.isBackChannelOpen()) {
+				boolean opened = mReconnecting ? mChannel.reconnect() : mChannel.openBackChannel();
+				if (!opened) {
+					retry(mError != null ? mError : new ChannelException("Couldn't open the long-poll request"));
+					return;
+				}
+				mReconnecting = false;
+			}
+
+			int submissionCount = 0;
+			boolean block = true;
+			try {
+				// Only the first read waits for the server, the following ones only read what
+				// has already arrived. A submission that is still arriving is continued on
+				// the next turn.
+				while (submissionCount < SUBMISSIONS_PER_TURN && mChannel.isBackChannelOpen()
+						&& (block || mChannel.isBackChannelReady())) {
+					if (!mChannel.readBackChannel(block)) {
+						break;
+					}
+					block = false;
+					submissionCount++;
+				}
+			} catch (ChannelException e) {
+				mChannel.closeBackChannel();
+				mError = e;
+				retry(e);
+				return;
+			}
+
+			if (mChannel.isBackChannelOpen()) {
+				long idleTime = mChannel.getBackChannelIdleTime();
+				if (mChannel.isBackChannelInSubmission() && idleTime > mStallTimeout) {
+					mChannel.closeBackChannel();
+					mError = new ChannelException("Stream stalled in the middle of a submission.");
+					retry(mError);
+					return;
+				} else if (idleTime > mIdleTimeout) {
+					mChannel.closeBackChannel();
+				}
+			}
+
+			// The next turn waits for the server itself
+			schedule(this, 0);
+		}
+
+		/**
+		 * Schedule a reconnect, or fail the channel if it's out of reconnect attempts
+		 * @param error the error reported if the channel fails
+		 */
+		private void retry(ChannelException error) {
+			long delay = mChannel.nextReconnectDelay();
+			if (delay < 0) {
+				mPolling.remove(mChannel);
+				mChannel.failBackChannel(error);
+				return;
+			}
+			mReconnecting = true;
+			schedule(this, delay);
+		}
+	}
+
+	/**
+	 * One turn of a development channel. Makes one poll request and schedules the next
+	 * turn after the delay the channel asks for.
+	 */
+	private class DevelopmentPollTurn implements Runnable {
+		private ChannelAPI mChannel;
+
+		/**
+		 * @param channel the channel to poll
+		 */
+		DevelopmentPollTurn(ChannelAPI channel) {
+			mChannel = channel;
+		}
+
+		@Override
+		public void run() {
+			if (!mChannel.isOpen()) {
+				mPolling.remove(mChannel);
+				return;
+			}
+
+			long delay;
+			try {
+				delay = mChannel.pollDevelopment();
+			} catch (RuntimeException e) {
+				delay = mChannel.backOffDevelopmentPoll();
+			}
+
+			schedule(this, delay);
+		}
+	}
+}
@@ -0,0 +1,351 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters, rates and latency histograms for a channel. Everything recorded for a channel
+ * is also added to the process-wide metrics from {@link #getProcessMetrics()}. Metrics
+ * are enabled per channel with {@link ChannelAPI#enableMetrics(String)}, which also
+ * registers them as JMX MBeans named
+ * "edu.gvsu.cis.masl.channelAPI:type=ChannelMetrics,name=\"&lt;name&gt;\"" and
+ * "edu.gvsu.cis.masl.channelAPI:type=ChannelMetrics,name=\"process\"".
+ * <p>
+ * Channels without metrics share a disabled instance that returns before reading the
+ * clock or touching a counter, so disabled metrics cost a field read and a branch.
+ */
+public final class ChannelMetrics implements ChannelMetricsMXBean {
+	/** Shared by all channels that don't have metrics enabled */
+	static final ChannelMetrics DISABLED = new ChannelMetrics(false, null);
+	private static final ChannelMetrics mProcessMetrics = new ChannelMetrics(true, null);
+
+	private final boolean mEnabled;
+	private final ChannelMetrics mParent;
+	private LatencyHistogram mInitializeLatency = new LatencyHistogram();
+	private LatencyHistogram mFetchSidLatency = new LatencyHistogram();
+	private LatencyHistogram mConnectLatency = new LatencyHistogram();
+	private LatencyHistogram mLongPollDuration = new LatencyHistogram();
+	private LatencyHistogram mDevelopmentPollLatency = new LatencyHistogram();
+	private LatencyHistogram mSendLatency = new LatencyHistogram();
+	private AtomicLong mSubmissionCount = new AtomicLong();
+	private AtomicLong mMessagesReceived = new AtomicLong();
+	private RateMeter mMessageRate = new RateMeter();
+	private AtomicLong mBytesReceived = new AtomicLong();
+	private RateMeter mByteRate = new RateMeter();
+	private AtomicLong mBytesDecoded = new AtomicLong();
+	private AtomicLong mMessagesSent = new AtomicLong();
+	private AtomicLong mBytesSent = new AtomicLong();
+	private AtomicLong mErrorCount = new AtomicLong();
+	private AtomicLong mReconnectCount = new AtomicLong();
+
+	/**
+	 * @param enabled false if nothing should be recorded
+	 * @param parent also receives everything recorded, null if none
+	 */
+	private ChannelMetrics(boolean enabled, ChannelMetrics parent) {
+		mEnabled = enabled;
+		mParent = parent;
+	}
+
+	/**
+	 * @return new enabled metrics for a channel, aggregated into the process metrics
+	 */
+	static ChannelMetrics newChannelMetrics() {
+		return new ChannelMetrics(true, mProcessMetrics);
+	}
+
+	/**
+	 * @return metrics aggregated over all channels in this process that have metrics
+	 *         enabled
+	 */
+	public static ChannelMetrics getProcessMetrics() {
+		return mProcessMetrics;
+	}
+
+	/**
+	 * @return true if these metrics record anything
+	 */
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+
+	/**
+	 * Start timing a phase
+	 * @return start time to pass to one of the record methods, 0 if disabled
+	 */
+	long startTimer() {
+		return mEnabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * @param startTime from {@link #startTimer()}
+	 */
+	void recordInitialize(long startTime) {
+		if (mEnabled) {
+			record(mInitializeLatency, mParent != null ? mParent.mInitializeLatency : null, startTime);
+		}
+	}
+
+	/**
+	 * @param startTime from {@link #startTimer()}
+	 */
+	void recordFetchSid(long startTime) {
+		if (mEnabled) {
+			record(mFetchSidLatency, mParent != null ? mParent.mFetchSidLatency : null, startTime);
+		}
+	}
+
+	/**
+	 * @param startTime from {@link #startTimer()}
+	 */
+	void recordConnect(long startTime) {
+		if (mEnabled) {
+			record(mConnectLatency, mParent != null ? mParent.mConnectLatency : null, startTime);
+		}
+	}
+
+	/**
+	 * @param startTime from {@link #startTimer()}, when the long-poll request was opened
+	 */
+	void recordLongPoll(long startTime) {
+		if (mEnabled) {
+			record(mLongPollDuration, mParent != null ? mParent.mLongPollDuration : null, startTime);
+		}
+	}
+
+	/**
+	 * @param startTime from {@link #startTimer()}
+	 */
+	void recordDevelopmentPoll(long startTime) {
+		if (mEnabled) {
+			record(mDevelopmentPollLatency, mParent != null ? mParent.mDevelopmentPollLatency : null, startTime);
+		}
+	}
+
+	/**
+	 * @param startTime from {@link #startTimer()}
+	 * @param messageCount number of messages in the request
+	 */
+	void recordSend(long startTime, int messageCount) {
+		if (mEnabled) {
+			record(mSendLatency, mParent != null ? mParent.mSendLatency : null, startTime);
+			mMessagesSent.addAndGet(messageCount);
+			if (mParent != null) {
+				mParent.mMessagesSent.addAndGet(messageCount);
+			}
+		}
+	}
+
+	/**
+	 * Count the bytes of a request body sent by the channel, see
+	 * {@link ChannelAPI#setSendFormat(SendFormat)}
+	 * @param byteCount number of bytes sent, after compression
+	 */
+	void recordBytesSent(long byteCount) {
+		if (mEnabled && byteCount > 0) {
+			mBytesSent.addAndGet(byteCount);
+			if (mParent != null) {
+				mParent.mBytesSent.addAndGet(byteCount);
+			}
+		}
+	}
+
+	/**
+	 * Count a submission read from a long-poll request
+	 */
+	void recordSubmission() {
+		if (mEnabled) {
+			mSubmissionCount.incrementAndGet();
+			if (mParent != null) {
+				mParent.mSubmissionCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Count a message delivered to the listener
+	 */
+	void recordMessage() {
+		recordMessages(1);
+	}
+
+	/**
+	 * Count messages delivered to the listener
+	 * @param messageCount
+	 */
+	void recordMessages(int messageCount) {
+		if (mEnabled) {
+			mMessagesReceived.addAndGet(messageCount);
+			mMessageRate.mark(messageCount);
+			if (mParent != null) {
+				mParent.mMessagesReceived.addAndGet(messageCount);
+				mParent.mMessageRate.mark(messageCount);
+			}
+		}
+	}
+
+	/**
+	 * Count received bytes
+	 * @param byteCount
+	 */
+	void recordBytes(long byteCount) {
+		if (mEnabled && byteCount > 0) {
+			mBytesReceived.addAndGet(byteCount);
+			mByteRate.mark(byteCount);
+			if (mParent != null) {
+				mParent.mBytesReceived.addAndGet(byteCount);
+				mParent.mByteRate.mark(byteCount);
+			}
+		}
+	}
+
+	/**
+	 * Count received bytes after decompression
+	 * @param byteCount
+	 */
+	void recordDecodedBytes(long byteCount) {
+		if (mEnabled && byteCount > 0) {
+			mBytesDecoded.addAndGet(byteCount);
+			if (mParent != null) {
+				mParent.mBytesDecoded.addAndGet(byteCount);
+			}
+		}
+	}
+
+	/**
+	 * Count a failed request or error response
+	 */
+	void recordError() {
+		if (mEnabled) {
+			mErrorCount.incrementAndGet();
+			if (mParent != null) {
+				mParent.mErrorCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Count a reconnect of the production long-poll
+	 */
+	void recordReconnect() {
+		if (mEnabled) {
+			mReconnectCount.incrementAndGet();
+			if (mParent != null) {
+				mParent.mReconnectCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Record the time since the start time in a histogram and its parent histogram
+	 * @param histogram
+	 * @param parentHistogram null if none
+	 * @param startTime from {@link #startTimer()}
+	 */
+	private static void record(LatencyHistogram histogram, LatencyHistogram parentHistogram, long startTime) {
+		long nanos = System.nanoTime() - startTime;
+		histogram.record(nanos);
+		if (parentHistogram != null) {
+			parentHistogram.record(nanos);
+		}
+	}
+
+	@Override
+	public LatencySnapshot getInitializeLatency() {
+		return mInitializeLatency.getSnapshot();
+	}
+
+	@Override
+	public LatencySnapshot getFetchSidLatency() {
+		return mFetchSidLatency.getSnapshot();
+	}
+
+	@Override
+	public LatencySnapshot getConnectLatency() {
+		return mConnectLatency.getSnapshot();
+	}
+
+	@Override
+	public LatencySnapshot getLongPollDuration() {
+		return mLongPollDuration.getSnapshot();
+	}
+
+	@Override
+	public LatencySnapshot getDevelopmentPollLatency() {
+		return mDevelopmentPollLatency.getSnapshot();
+	}
+
+	@Override
+	public LatencySnapshot getSendLatency() {
+		return mSendLatency.getSnapshot();
+	}
+
+	@Override
+	public long getSubmissionCount() {
+		return mSubmissionCount.get();
+	}
+
+	@Override
+	public long getMessagesReceived() {
+		return mMessagesReceived.get();
+	}
+
+	@Override
+	public double getMessageRate() {
+		return mMessageRate.getRate();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return mBytesReceived.get();
+	}
+
+	@Override
+	public double getByteRate() {
+		return mByteRate.getRate();
+	}
+
+	@Override
+	public long getBytesDecoded() {
+		return mBytesDecoded.get();
+	}
+
+	@Override
+	public long getMessagesSent() {
+		return mMessagesSent.get();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return mBytesSent.get();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return mErrorCount.get();
+	}
+
+	@Override
+	public long getReconnectCount() {
+		return mReconnectCount.get();
+	}
+
+	@Override
+	public void reset() {
+		mInitializeLatency.reset();
+		mFetchSidLatency.reset();
+		mConnectLatency.reset();
+		mLongPollDuration.reset();
+		mDevelopmentPollLatency.reset();
+		mSendLatency.reset();
+		mSubmissionCount.set(0);
+		mMessagesReceived.set(0);
+		mMessageRate.reset();
+		mBytesReceived.set(0);
+		mByteRate.reset();
+		mBytesDecoded.set(0);
+		mMessagesSent.set(0);
+		mBytesSent.set(0);
+		mErrorCount.set(0);
+		mReconnectCount.set(0);
+	}
+}
@@ -0,0 +1,94 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+/**
+ * JMX view of {@link ChannelMetrics}. Latencies are in milliseconds, rates are per second
+ * averaged over about a minute.
+ */
+public interface ChannelMetricsMXBean {
+	/**
+	 * @return time spent in the initialize step of the production handshake
+	 */
+	LatencySnapshot getInitializeLatency();
+
+	/**
+	 * @return time spent fetching the SID in the production handshake
+	 */
+	LatencySnapshot getFetchSidLatency();
+
+	/**
+	 * @return time spent in the connect step of the production handshake
+	 */
+	LatencySnapshot getConnectLatency();
+
+	/**
+	 * @return how long each production long-poll request stayed open
+	 */
+	LatencySnapshot getLongPollDuration();
+
+	/**
+	 * @return round trip time of development poll requests
+	 */
+	LatencySnapshot getDevelopmentPollLatency();
+
+	/**
+	 * @return round trip time of send requests, single and batched
+	 */
+	LatencySnapshot getSendLatency();
+
+	/**
+	 * @return number of submissions read from long-poll requests
+	 */
+	long getSubmissionCount();
+
+	/**
+	 * @return number of messages delivered to the listener
+	 */
+	long getMessagesReceived();
+
+	/**
+	 * @return messages delivered to the listener per second
+	 */
+	double getMessageRate();
+
+	/**
+	 * @return number of bytes received from poll requests, as sent by the server
+	 */
+	long getBytesReceived();
+
+	/**
+	 * @return bytes received from poll requests per second
+	 */
+	double getByteRate();
+
+	/**
+	 * @return number of bytes received from poll requests after decompression, the same
+	 *         as {@link #getBytesReceived()} if the responses weren't compressed
+	 */
+	long getBytesDecoded();
+
+	/**
+	 * @return number of messages sent to the server
+	 */
+	long getMessagesSent();
+
+	/**
+	 * @return number of bytes sent in raw or compressed request bodies, after compression.
+	 *         Form encoded messages aren't counted.
+	 */
+	long getBytesSent();
+
+	/**
+	 * @return number of failed requests and error responses
+	 */
+	long getErrorCount();
+
+	/**
+	 * @return number of times a production long-poll reconnected
+	 */
+	long getReconnectCount();
+
+	/**
+	 * Clear all counters and latencies
+	 */
+	void reset();
+}
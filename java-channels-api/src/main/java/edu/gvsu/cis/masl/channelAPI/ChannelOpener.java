@@ -0,0 +1,251 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opens many channels in parallel, with a limit on how many are being created and opened
+ * at the same time. Creating a channel with a key requests its token from the server and
+ * opening it in production goes through the handshake, so opening thousands of channels
+ * one after the other takes a long time. Usage:
+ *
+ * <pre>
+ * ChannelOpener opener = new ChannelOpener(64);
+ * for (final String key : keys) {
+ * 	opener.add(new Callable&lt;ChannelAPI&gt;() {
+ * 		public ChannelAPI call() throws IOException {
+ * 			return new ChannelAPI(url, key, service);
+ * 		}
+ * 	});
+ * }
+ * for (ChannelOpener.Result result : opener.openAll()) {
+ * 	...
+ * }
+ * </pre>
+ */
+public class ChannelOpener {
+	private static final ThreadFactory DEFAULT_THREAD_FACTORY = PollThreads.platform("ChannelOpener-", true);
+
+	private int mConcurrency;
+	private ThreadFactory mThreadFactory;
+	private List<Callable<ChannelAPI>> mFactories = new ArrayList<Callable<ChannelAPI>>();
+	private LatencyHistogram mLatency = new LatencyHistogram();
+
+	/**
+	 * @param concurrency max number of channels being created or opened at the same time
+	 */
+	public ChannelOpener(int concurrency) {
+		this(concurrency, DEFAULT_THREAD_FACTORY);
+	}
+
+	/**
+	 * @param concurrency max number of channels being created or opened at the same time
+	 * @param threadFactory creates the threads that open the channels
+	 */
+	public ChannelOpener(int concurrency, ThreadFactory threadFactory) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be at least 1, was " + concurrency);
+		}
+
+		mConcurrency = concurrency;
+		mThreadFactory = threadFactory;
+	}
+
+	/**
+	 * Add a channel that has already been created
+	 * @param channel the channel to open
+	 */
+	public void add(final ChannelAPI channel) {
+		mFactories.add(new Callable<ChannelAPI>() {
+			@Override
+			public ChannelAPI call() {
+				return channel;
+			}
+		});
+	}
+
+	/**
+	 * Add a channel that is created by the opener, so requesting tokens is done in
+	 * parallel too
+	 * @param factory creates the channel, e.g. with
+	 *        {@link ChannelAPI#ChannelAPI(String, String, ChannelService)}
+	 */
+	public void add(Callable<ChannelAPI> factory) {
+		mFactories.add(factory);
+	}
+
+	/**
+	 * @return number of channels added since the last {@link #openAll()}
+	 */
+	public int size() {
+		return mFactories.size();
+	}
+
+	/**
+	 * Create and open all added channels, blocking until every channel is open or has
+	 * failed. The channels are removed from the opener.
+	 * @return one result per channel, in the order the channels were added
+	 * @throws InterruptedException if interrupted while waiting. Channels that haven't
+	 *         been opened yet are skipped, and the channels that were opened are closed,
+	 *         also those that finish opening afterwards.
+	 */
+	public List<Result> openAll() throws InterruptedException {
+		List<Callable<ChannelAPI>> factories = mFactories;
+		mFactories = new ArrayList<Callable<ChannelAPI>>();
+		if (factories.isEmpty()) {
+			return new ArrayList<Result>();
+		}
+
+		int threadCount = Math.min(mConcurrency, factories.size());
+		ExecutorService executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				mThreadFactory);
+		// Opened channels, so they can be closed if the caller gives up on them
+		final List<ChannelAPI> opened = new ArrayList<ChannelAPI>();
+		final AtomicBoolean abandoned = new AtomicBoolean(false);
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>(factories.size());
+			for (final Callable<ChannelAPI> factory : factories) {
+				futures.add(executor.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						Result result = open(factory);
+						synchronized (opened) {
+							if (!abandoned.get()) {
+								if (result.isOpen()) {
+									opened.add(result.getChannel());
+								}
+								return result;
+							}
+						}
+						if (result.isOpen()) {
+							close(result.getChannel());
+						}
+						return result;
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>(futures.size());
+			for (Future<Result> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// open() catches everything
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} catch (InterruptedException e) {
+			List<ChannelAPI> channels;
+			synchronized (opened) {
+				abandoned.set(true);
+				channels = new ArrayList<ChannelAPI>(opened);
+			}
+			for (ChannelAPI channel : channels) {
+				close(channel);
+			}
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return latencies of creating and opening the channels, including the failed ones,
+	 *         for all calls to {@link #openAll()}
+	 */
+	public LatencySnapshot getLatency() {
+		return mLatency.getSnapshot();
+	}
+
+	/**
+	 * Create and open one channel
+	 * @param factory creates the channel
+	 * @return the result
+	 */
+	private Result open(Callable<ChannelAPI> factory) {
+		long startTime = System.nanoTime();
+		ChannelAPI channel = null;
+		Exception error = null;
+		try {
+			channel = factory.call();
+			channel.open();
+		} catch (Exception e) {
+			error = e;
+		}
+
+		long latency = System.nanoTime() - startTime;
+		mLatency.record(latency);
+		return new Result(channel, error, latency);
+	}
+
+	/**
+	 * Close a channel that nobody will use
+	 * @param channel the channel
+	 */
+	private static void close(ChannelAPI channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// The server drops the channel when it times out
+		}
+	}
+
+	/**
+	 * Outcome of opening one channel
+	 */
+	public static class Result {
+		private ChannelAPI mChannel;
+		private Exception mError;
+		private long mLatencyNanos;
+
+		/**
+		 * @param channel the channel, null if it couldn't be created
+		 * @param error why the channel couldn't be created or opened, null if it was opened
+		 * @param latencyNanos time it took to create and open the channel
+		 */
+		Result(ChannelAPI channel, Exception error, long latencyNanos) {
+			mChannel = channel;
+			mError = error;
+			mLatencyNanos = latencyNanos;
+		}
+
+		/**
+		 * @return the channel, null if it couldn't be created
+		 */
+		public ChannelAPI getChannel() {
+			return mChannel;
+		}
+
+		/**
+		 * @return true if the channel was opened
+		 */
+		public boolean isOpen() {
+			return mError == null;
+		}
+
+		/**
+		 * @return why the channel couldn't be created or opened, null if it was opened
+		 */
+		public Exception getError() {
+			return mError;
+		}
+
+		/**
+		 * @return time it took to create and open the channel, in milliseconds
+		 */
+		public double getLatencyMillis() {
+			return mLatencyNanos / 1e6;
+		}
+	}
+}
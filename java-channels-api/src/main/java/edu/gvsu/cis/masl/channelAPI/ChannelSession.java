@@ -0,0 +1,210 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The state of a production channel after the handshake, so a restarted process can
+ * resume the bind session instead of going through the handshake again. Export it with
+ * {@link ChannelAPI#exportSession()}, store {@link #encode()} somewhere local, and on
+ * restart:
+ *
+ * <pre>
+ * ChannelSession session = ChannelSession.decode(stored);
+ * ChannelAPI channel = new ChannelAPI();
+ * channel.joinChannel(url, session.getChannelId(), service);
+ * channel.importSession(session);
+ * channel.open();
+ * </pre>
+ *
+ * The server only keeps a bind session for a few minutes after its last long-poll
+ * request, and the channel token expires after two hours, so old sessions are better
+ * skipped, see {@link #getExportTime()}.
+ */
+public final class ChannelSession {
+	/** Version of the encoded format */
+	private static final String FORMAT_VERSION = "1";
+	/** Separates the fields of the encoded format */
+	private static final char SEPARATOR = ',';
+	/** Number of fields in the encoded format, including the version */
+	private static final int FIELD_COUNT = 9;
+
+	private String mChannelId;
+	private String mApplicationKey;
+	private String mClientId;
+	private String mSessionId;
+	private String mSid;
+	private long mMessageId;
+	private int mRequestId;
+	private long mExportTime;
+
+	/**
+	 * @param channelId the channel token
+	 * @param applicationKey the channel key used when sending
+	 * @param clientId
+	 * @param sessionId the gsessionid
+	 * @param sid the bind session id
+	 * @param messageId the last message id (AID) that was received
+	 * @param requestId the last request id (RID) that was sent
+	 * @param exportTime when the session was exported, in milliseconds since the epoch
+	 */
+	ChannelSession(String channelId, String applicationKey, String clientId, String sessionId, String sid, long messageId, int requestId,
+			long exportTime) {
+		mChannelId = channelId;
+		mApplicationKey = applicationKey;
+		mClientId = clientId;
+		mSessionId = sessionId;
+		mSid = sid;
+		mMessageId = messageId;
+		mRequestId = requestId;
+		mExportTime = exportTime;
+	}
+
+	/**
+	 * @return the channel token
+	 */
+	public String getChannelId() {
+		return mChannelId;
+	}
+
+	/**
+	 * @return the channel key used when sending
+	 */
+	public String getApplicationKey() {
+		return mApplicationKey;
+	}
+
+	/**
+	 * @return the client id
+	 */
+	public String getClientId() {
+		return mClientId;
+	}
+
+	/**
+	 * @return the gsessionid
+	 */
+	public String getSessionId() {
+		return mSessionId;
+	}
+
+	/**
+	 * @return the bind session id
+	 */
+	public String getSid() {
+		return mSid;
+	}
+
+	/**
+	 * @return the last message id (AID) that was received
+	 */
+	public long getMessageId() {
+		return mMessageId;
+	}
+
+	/**
+	 * @return the last request id (RID) that was sent
+	 */
+	public int getRequestId() {
+		return mRequestId;
+	}
+
+	/**
+	 * @return when the session was exported, in milliseconds since the epoch
+	 */
+	public long getExportTime() {
+		return mExportTime;
+	}
+
+	/**
+	 * @return the session as one line of text
+	 */
+	public String encode() {
+		StringBuilder builder = new StringBuilder(256);
+		builder.append(FORMAT_VERSION);
+		appendField(builder, mChannelId);
+		appendField(builder, mApplicationKey);
+		appendField(builder, mClientId);
+		appendField(builder, mSessionId);
+		appendField(builder, mSid);
+		builder.append(SEPARATOR).append(mMessageId);
+		builder.append(SEPARATOR).append(mRequestId);
+		builder.append(SEPARATOR).append(mExportTime);
+		return builder.toString();
+	}
+
+	/**
+	 * Decode a session encoded with {@link #encode()}
+	 * @param encoded
+	 * @return the session
+	 * @throws IllegalArgumentException if encoded isn't a session in a known format
+	 */
+	public static ChannelSession decode(String encoded) {
+		if (encoded == null) {
+			throw new IllegalArgumentException("Encoded session is null");
+		}
+
+		String[] fields = encoded.trim().split(String.valueOf(SEPARATOR), -1);
+		// The encoded session contains the token, so it isn't put in the messages
+		if (fields.length != FIELD_COUNT) {
+			throw new IllegalArgumentException("Not an encoded session, expected " + FIELD_COUNT + " fields, found " + fields.length);
+		}
+		if (!FORMAT_VERSION.equals(fields[0])) {
+			throw new IllegalArgumentException("Not an encoded session, unknown format version");
+		}
+
+		try {
+			return new ChannelSession(decodeField(fields[1]), decodeField(fields[2]), decodeField(fields[3]), decodeField(fields[4]),
+					decodeField(fields[5]), Long.parseLong(fields[6]), Integer.parseInt(fields[7]), Long.parseLong(fields[8]));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not an encoded session, bad number", e);
+		} catch (IllegalArgumentException e) {
+			// Thrown by URLDecoder with a part of the field in the message
+			throw new IllegalArgumentException("Not an encoded session, bad escape in a field");
+		}
+	}
+
+	/**
+	 * @return the channel key and export time, without the token and session ids, so the
+	 *         session can be logged. Use {@link #encode()} to store it.
+	 */
+	@Override
+	public String toString() {
+		return "ChannelSession[key=" + mApplicationKey + ", exportTime=" + mExportTime + "]";
+	}
+
+	/**
+	 * Append a separator and a string field, escaped so it can't contain the separator
+	 * @param builder
+	 * @param value the field, null is stored as an empty field
+	 */
+	private static void appendField(StringBuilder builder, String value) {
+		builder.append(SEPARATOR);
+		if (value != null) {
+			try {
+				builder.append(URLEncoder.encode(value, StandardCharsets.UTF_8.name()));
+			} catch (UnsupportedEncodingException e) {
+				// UTF-8 is always supported
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * @param field an escaped string field
+	 * @return the field, null if it's empty
+	 */
+	private static String decodeField(String field) {
+		if (field.isEmpty()) {
+			return null;
+		}
+		try {
+			return URLDecoder.decode(field, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+/**
+ * A channel service that receives messages as views instead of Strings, for listeners
+ * that only route or forward messages and don't need to keep them. Messages from a
+ * production long-poll are passed as a view over a buffer that the channel reuses for
+ * the next submission, so no String is created for them. With a dispatch queue (see
+ * {@link ChannelAPI#setDispatchQueue(int, OverflowPolicy)}) the messages have to be kept
+ * until they're delivered, so they are passed as Strings. A listener implementing this
+ * interface gets every message through {@link #onMessageView(CharSequence)} and never
+ * through {@link #onMessage(String)}, also when it implements
+ * {@link BatchChannelService}.
+ */
+public interface ChannelViewService extends ChannelService {
+	/**
+	 * Called instead of {@link #onMessage(String)} when the socket receives a message
+	 * @param message the message. Only valid during the call, use toString() to keep it.
+	 */
+	void onMessageView(CharSequence message);
+}
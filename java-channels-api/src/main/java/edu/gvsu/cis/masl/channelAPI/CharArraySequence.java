@@ -0,0 +1,94 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+/**
+ * Reusable CharSequence view over a region of a char array. Nothing is copied until
+ * {@link #toString()} is called, so the view is only valid as long as the underlying
+ * array isn't changed.
+ */
+final class CharArraySequence implements CharSequence {
+	private char[] mChars = null;
+	private int mOffset = 0;
+	private int mLength = 0;
+
+	/**
+	 * Point the view at a new region
+	 * @param chars the characters
+	 * @param offset where the region starts
+	 * @param length number of characters in the region
+	 */
+	void set(char[] chars, int offset, int length) {
+		mChars = chars;
+		mOffset = offset;
+		mLength = length;
+	}
+
+	@Override
+	public int length() {
+		return mLength;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= mLength) {
+			throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+		}
+		return mChars[mOffset + index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > mLength || start > end) {
+			throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + mLength);
+		}
+		return new String(mChars, mOffset + start, end - start);
+	}
+
+	/**
+	 * @param string the string to compare with
+	 * @return true if the view contains exactly the same characters as the string
+	 */
+	boolean contentEquals(String string) {
+		if (string == null || string.length() != mLength) {
+			return false;
+		}
+		for (int i = 0; i < mLength; i++) {
+			if (mChars[mOffset + i] != string.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param string the string to compare with
+	 * @return true if the view contains the same characters as the string, ignoring case
+	 */
+	boolean contentEqualsIgnoreCase(String string) {
+		if (string == null || string.length() != mLength) {
+			return false;
+		}
+		for (int i = 0; i < mLength; i++) {
+			char ch = mChars[mOffset + i];
+			char other = string.charAt(i);
+			if (ch != other && Character.toUpperCase(ch) != Character.toUpperCase(other)
+					&& Character.toLowerCase(ch) != Character.toLowerCase(other)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copy the characters of the view into an array
+	 * @param destination
+	 * @param offset where in the destination to copy the characters to
+	 */
+	void getChars(char[] destination, int offset) {
+		System.arraycopy(mChars, mOffset, destination, offset, mLength);
+	}
+
+	@Override
+	public String toString() {
+		return new String(mChars, mOffset, mLength);
+	}
+}
@@ -0,0 +1,414 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Returns HTTP connections to the JVM's keep-alive pool instead of tearing them down, and
+ * counts how often requests can reuse a pooled connection. A connection is only pooled
+ * by the JVM once its response has been read to the end and its stream closed, so
+ * responses are always drained before they are released.
+ * <p>
+ * For HTTPS the counts are observed. Each HTTPS request gets a socket factory that counts
+ * the sockets it creates: every socket is a miss, and every other HTTPS request reused a
+ * pooled connection. A request counts as a hit until it has connected. The JVM only
+ * reuses a connection for a request with the same socket factory, so one counting
+ * factory is shared by all requests that had the same factory.
+ * <p>
+ * For plain HTTP the JVM doesn't tell whether a request actually got a pooled socket, so
+ * hits and misses are an estimate that follows the rules of its pool: a request is a hit if a
+ * connection to the same host was released before its keep-alive time ran out and the
+ * pool for that host wasn't full (http.maxConnections, default 5). A released connection
+ * only counts if its response let the JVM keep it: HTTP/1.1 or "Connection: keep-alive",
+ * no "Connection: close", and a body with a length or chunked encoding. The keep-alive
+ * time is the "timeout" of a "Keep-Alive" header, {@value #KEEP_ALIVE_MS} ms without one.
+ * The server may still close an idle connection earlier, which the estimate doesn't see.
+ */
+public final class ConnectionPool {
+	/** How long the JVM keeps an idle connection unless the server says otherwise */
+	private static final long KEEP_ALIVE_MS = 5000;
+	/** Buffer size when draining responses */
+	private static final int BUFFER_SIZE = 4096;
+
+	private static final int mMaxConnections = Integer.getInteger("http.maxConnections", 5);
+	private static final boolean mKeepAlive = Boolean.parseBoolean(System.getProperty("http.keepAlive", "true"));
+	/** When released connections expire from the pool, per destination, most recent last */
+	private static final Map<String, Deque<Long>> mIdle = new HashMap<String, Deque<Long>>();
+	private static final AtomicLong mHits = new AtomicLong();
+	private static final AtomicLong mMisses = new AtomicLong();
+	private static final AtomicLong mReleased = new AtomicLong();
+	private static final AtomicLong mDiscarded = new AtomicLong();
+	private static final AtomicLong mHttpsRequests = new AtomicLong();
+	private static final AtomicLong mSockets = new AtomicLong();
+	/** Counting factory for each socket factory that HTTPS requests came with */
+	private static final Map<SSLSocketFactory, CountingSocketFactory> mCountingFactories = new HashMap<SSLSocketFactory, CountingSocketFactory>();
+
+	/**
+	 * Only static methods
+	 */
+	private ConnectionPool() {
+	}
+
+	/**
+	 * @return number of requests that reused a pooled connection, estimated for plain HTTP
+	 */
+	public static long getHitCount() {
+		return mHits.get() + Math.max(0, mHttpsRequests.get() - mSockets.get());
+	}
+
+	/**
+	 * @return number of requests that needed a new connection, estimated for plain HTTP
+	 */
+	public static long getMissCount() {
+		return mMisses.get() + mSockets.get();
+	}
+
+	/**
+	 * @return number of HTTPS sockets created
+	 */
+	public static long getSocketCount() {
+		return mSockets.get();
+	}
+
+	/**
+	 * @return number of connections that were drained and returned to the pool
+	 */
+	public static long getReleaseCount() {
+		return mReleased.get();
+	}
+
+	/**
+	 * @return number of connections that had to be disconnected, e.g. long-poll requests
+	 *         that were still open
+	 */
+	public static long getDiscardCount() {
+		return mDiscarded.get();
+	}
+
+	/**
+	 * Reset all counters to 0
+	 */
+	public static void resetCounters() {
+		mHits.set(0);
+		mMisses.set(0);
+		mReleased.set(0);
+		mDiscarded.set(0);
+		mHttpsRequests.set(0);
+		mSockets.set(0);
+	}
+
+	/**
+	 * Count a new request as a hit or miss. Call this when the connection has been
+	 * created, before it's used.
+	 * @param connection the new connection
+	 * @return the connection
+	 */
+	static HttpURLConnection track(HttpURLConnection connection) {
+		if (connection instanceof HttpsURLConnection) {
+			HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+			httpsConnection.setSSLSocketFactory(getCountingFactory(httpsConnection.getSSLSocketFactory()));
+			mHttpsRequests.incrementAndGet();
+			return connection;
+		}
+
+		String destination = getDestination(connection.getURL());
+		long now = System.currentTimeMillis();
+		boolean hit = false;
+
+		synchronized (mIdle) {
+			Deque<Long> idle = mIdle.get(destination);
+			if (idle != null) {
+				while (!idle.isEmpty() && idle.peekFirst() < now) {
+					idle.pollFirst();
+				}
+				hit = idle.pollLast() != null;
+				if (idle.isEmpty()) {
+					mIdle.remove(destination);
+				}
+			}
+		}
+
+		if (hit) {
+			mHits.incrementAndGet();
+		} else {
+			mMisses.incrementAndGet();
+		}
+		return connection;
+	}
+
+	/**
+	 * Read the whole response as UTF-8 and release the connection
+	 * @param connection connection with a successful response
+	 * @return the response body
+	 * @throws IOException if the response couldn't be read, the connection is discarded
+	 */
+	static String readResponse(HttpURLConnection connection) throws IOException {
+		return readResponse(connection, ChannelMetrics.DISABLED);
+	}
+
+	/**
+	 * Read the whole response as UTF-8, decompressed if the server compressed it, and
+	 * release the connection
+	 * @param connection connection with a successful response
+	 * @param metrics counts the bytes received and the bytes after decompression
+	 * @return the response body
+	 * @throws IOException if the response couldn't be read, the connection is discarded
+	 */
+	static String readResponse(HttpURLConnection connection, ChannelMetrics metrics) throws IOException {
+		InputStream inputStream = null;
+		try {
+			inputStream = DecodingInputStream.open(connection, metrics);
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int numRead = inputStream.read(buffer);
+			while (numRead >= 0) {
+				body.write(buffer, 0, numRead);
+				numRead = inputStream.read(buffer);
+			}
+			inputStream.close();
+			released(connection);
+			return new String(body.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			if (inputStream == null) {
+				// Error response, drain the error stream instead
+				release(connection);
+			} else {
+				discard(connection);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the rest of the response (or error response) and release the connection. Don't
+	 * use this for responses that the server keeps open, use {@link #discard} instead.
+	 * @param connection the connection to release
+	 */
+	static void release(HttpURLConnection connection) {
+		try {
+			InputStream inputStream;
+			try {
+				inputStream = connection.getInputStream();
+			} catch (IOException e) {
+				inputStream = connection.getErrorStream();
+			}
+			if (inputStream != null) {
+				drain(inputStream);
+			}
+			released(connection);
+		} catch (IOException e) {
+			discard(connection);
+		}
+	}
+
+	/**
+	 * Release a connection whose response has already been read to the end and closed
+	 * @param connection the connection
+	 */
+	static void released(HttpURLConnection connection) {
+		mReleased.incrementAndGet();
+		if (connection instanceof HttpsURLConnection) {
+			// Counted by its socket factory
+			return;
+		}
+
+		long keepAliveMs = getKeepAliveTime(connection);
+		if (keepAliveMs <= 0) {
+			return;
+		}
+
+		String destination = getDestination(connection.getURL());
+		synchronized (mIdle) {
+			Deque<Long> idle = mIdle.get(destination);
+			if (idle == null) {
+				idle = new ArrayDeque<Long>();
+				mIdle.put(destination, idle);
+			}
+			if (idle.size() >= mMaxConnections) {
+				idle.pollFirst();
+			}
+			idle.addLast(System.currentTimeMillis() + keepAliveMs);
+		}
+	}
+
+	/**
+	 * How long the JVM keeps a released connection, from the headers of its response
+	 * @param connection connection whose response has been read
+	 * @return keep-alive time in milliseconds, 0 if the connection isn't kept
+	 */
+	private static long getKeepAliveTime(HttpURLConnection connection) {
+		if (!mKeepAlive) {
+			return 0;
+		}
+
+		String statusLine = connection.getHeaderField(0);
+		String keep = connection.getHeaderField("Connection");
+		if (keep != null) {
+			// Any other Connection header, e.g. "close", ends the connection
+			if (!keep.trim().equalsIgnoreCase("keep-alive")) {
+				return 0;
+			}
+		} else if (statusLine == null || statusLine.startsWith("HTTP/1.0")) {
+			return 0;
+		}
+
+		// Without a length the response ended by closing the connection
+		String transferEncoding = connection.getHeaderField("Transfer-Encoding");
+		if (connection.getHeaderField("Content-Length") == null
+				&& (transferEncoding == null || !transferEncoding.equalsIgnoreCase("chunked"))) {
+			return 0;
+		}
+
+		long keepAliveMs = KEEP_ALIVE_MS;
+		String keepAlive = connection.getHeaderField("Keep-Alive");
+		if (keep != null && keepAlive != null) {
+			for (String param : keepAlive.split(",")) {
+				String[] nameValue = param.trim().split("=", 2);
+				if (nameValue.length < 2) {
+					continue;
+				}
+				try {
+					int value = Integer.parseInt(nameValue[1].trim());
+					if (nameValue[0].equalsIgnoreCase("timeout") && value >= 0) {
+						keepAliveMs = value * 1000L;
+					} else if (nameValue[0].equalsIgnoreCase("max") && value == 1) {
+						keepAliveMs = 0;
+					}
+				} catch (NumberFormatException e) {
+					// Ignored like the JVM does
+				}
+			}
+		}
+		return keepAliveMs;
+	}
+
+	/**
+	 * Close the connection without returning it to the pool
+	 * @param connection the connection to close
+	 */
+	static void discard(HttpURLConnection connection) {
+		mDiscarded.incrementAndGet();
+		connection.disconnect();
+	}
+
+	/**
+	 * Read a stream to the end and close it
+	 * @param inputStream
+	 * @throws IOException
+	 */
+	private static void drain(InputStream inputStream) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			while (inputStream.read(buffer) >= 0) {
+				// Discard
+			}
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * @param factory socket factory of an HTTPS request
+	 * @return the counting factory shared by all requests with the factory
+	 */
+	private static SSLSocketFactory getCountingFactory(SSLSocketFactory factory) {
+		if (factory instanceof CountingSocketFactory) {
+			return factory;
+		}
+
+		synchronized (mCountingFactories) {
+			CountingSocketFactory countingFactory = mCountingFactories.get(factory);
+			if (countingFactory == null) {
+				countingFactory = new CountingSocketFactory(factory);
+				mCountingFactories.put(factory, countingFactory);
+			}
+			return countingFactory;
+		}
+	}
+
+	/**
+	 * @param url
+	 * @return the destination of the URL that the JVM pools connections by
+	 */
+	private static String getDestination(URL url) {
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		return url.getProtocol() + "://" + url.getHost() + ":" + port;
+	}
+
+	/**
+	 * Creates the sockets with another factory and counts them
+	 */
+	private static class CountingSocketFactory extends SSLSocketFactory {
+		private SSLSocketFactory mFactory;
+
+		/**
+		 * @param factory creates the sockets
+		 */
+		CountingSocketFactory(SSLSocketFactory factory) {
+			mFactory = factory;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return mFactory.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return mFactory.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return counted(mFactory.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			return counted(mFactory.createSocket(socket, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return counted(mFactory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return counted(mFactory.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return counted(mFactory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return counted(mFactory.createSocket(address, port, localAddress, localPort));
+		}
+
+		/**
+		 * @param socket a socket that has been created
+		 * @return the socket
+		 */
+		private static Socket counted(Socket socket) {
+			mSockets.incrementAndGet();
+			return socket;
+		}
+	}
+}
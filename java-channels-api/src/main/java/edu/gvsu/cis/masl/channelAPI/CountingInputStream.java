@@ -0,0 +1,57 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a response, as received and/or after decompression
+ */
+class CountingInputStream extends FilterInputStream {
+	private ChannelMetrics mMetrics;
+	private boolean mReceived;
+	private boolean mDecoded;
+
+	/**
+	 * @param inputStream the stream to count
+	 * @param metrics receives the byte counts
+	 * @param received true to count the bytes as received from the server
+	 * @param decoded true to count the bytes as decompressed
+	 */
+	CountingInputStream(InputStream inputStream, ChannelMetrics metrics, boolean received, boolean decoded) {
+		super(inputStream);
+		mMetrics = metrics;
+		mReceived = received;
+		mDecoded = decoded;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int value = super.read();
+		if (value >= 0) {
+			record(1);
+		}
+		return value;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int count = super.read(buffer, offset, length);
+		if (count > 0) {
+			record(count);
+		}
+		return count;
+	}
+
+	/**
+	 * @param count number of bytes read
+	 */
+	private void record(int count) {
+		if (mReceived) {
+			mMetrics.recordBytes(count);
+		}
+		if (mDecoded) {
+			mMetrics.recordDecodedBytes(count);
+		}
+	}
+}
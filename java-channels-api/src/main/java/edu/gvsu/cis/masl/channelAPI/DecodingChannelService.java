@@ -0,0 +1,275 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Channel listener that decodes messages with a {@link MessageCodec} and passes them to
+ * a {@link TypedChannelService}. Messages are decoded on a worker pool, so the poll
+ * thread only queues them and the messages of one channel, or of many channels sharing
+ * the pool, are decoded in parallel. The typed listener still gets every callback in the
+ * order the channel received it: a decoded message waits until the messages before it
+ * have been delivered. The callbacks are delivered on a thread of this service, so a slow
+ * listener doesn't hold up the decode workers of other channels. When too many messages
+ * are waiting, the poll thread waits for room for at most the pending timeout instead of
+ * buffering without limit. A message that still doesn't fit is dropped and reported to
+ * onError with error code 503. Usage:
+ *
+ * <pre>
+ * ChannelAPI channel = new ChannelAPI(url, key, new DecodingChannelService&lt;Object&gt;(JsonCodec.INSTANCE, listener));
+ * </pre>
+ *
+ * @param <T> type of the decoded messages
+ */
+public class DecodingChannelService<T> implements ChannelService {
+	/** Default max number of messages being decoded or waiting to be delivered */
+	public static final int PENDING_MAX_DEFAULT = 1024;
+	/** Default time the poll thread waits for room for a message */
+	public static final long PENDING_TIMEOUT_MS_DEFAULT = 1000;
+	/** Shared by every instance that doesn't get an executor, one thread per core */
+	private static final Executor DEFAULT_EXECUTOR = PollThreads.fixed(PollThreads.platform("ChannelAPI-decode-", true), Runtime
+			.getRuntime().availableProcessors());
+	private static final ThreadFactory DELIVERY_THREAD_FACTORY = PollThreads.platform("ChannelAPI-deliver-", true);
+
+	private final MessageCodec<T> mCodec;
+	private final TypedChannelService<T> mListener;
+	private final Executor mExecutor;
+	private final int mPendingMax;
+	/** One permit for each message that can still be queued */
+	private final Semaphore mPendingPermits;
+	private volatile long mPendingTimeout = PENDING_TIMEOUT_MS_DEFAULT;
+	/** Callbacks in the order they were received, the head is delivered when it's ready */
+	private final Queue<Callback<T>> mCallbacks = new ConcurrentLinkedQueue<Callback<T>>();
+	/** Delivers the callbacks, one at a time. Its thread stops when it's idle. */
+	private final Executor mDeliveryExecutor = PollThreads.fixed(DELIVERY_THREAD_FACTORY, 1);
+	/** True while a delivery is queued on the delivery executor and hasn't started yet */
+	private final AtomicBoolean mDeliveryScheduled = new AtomicBoolean();
+	private final Runnable mDelivery = new Runnable() {
+		@Override
+		public void run() {
+			mDeliveryScheduled.set(false);
+			deliverReady();
+		}
+	};
+
+	/**
+	 * Decode on a shared pool with one thread per core
+	 * @param codec decodes the messages
+	 * @param listener receives the decoded messages
+	 */
+	public DecodingChannelService(MessageCodec<T> codec, TypedChannelService<T> listener) {
+		this(codec, listener, DEFAULT_EXECUTOR, PENDING_MAX_DEFAULT);
+	}
+
+	/**
+	 * @param codec decodes the messages, called from several threads at the same time
+	 * @param listener receives the decoded messages
+	 * @param executor decodes the messages, e.g. {@link PollThreads#fixed}. Messages are
+	 *        decoded on the poll thread if it rejects them.
+	 * @param pendingMax max number of messages being decoded or waiting to be delivered
+	 */
+	public DecodingChannelService(MessageCodec<T> codec, TypedChannelService<T> listener, Executor executor, int pendingMax) {
+		if (pendingMax < 1) {
+			throw new IllegalArgumentException("pendingMax must be at least 1, was " + pendingMax);
+		}
+
+		mCodec = codec;
+		mListener = listener;
+		mExecutor = executor;
+		mPendingMax = pendingMax;
+		mPendingPermits = new Semaphore(pendingMax);
+	}
+
+	/**
+	 * Sets how long the poll thread waits for room when too many messages are waiting.
+	 * A message that doesn't get room in time, or whose poll thread is interrupted while
+	 * waiting, is dropped and reported to onError with error code 503.
+	 * @param pendingTimeout timeout in milliseconds
+	 */
+	public void setPendingTimeout(long pendingTimeout) {
+		mPendingTimeout = pendingTimeout;
+	}
+
+	/**
+	 * @return number of messages being decoded or waiting to be delivered
+	 */
+	public int getPendingCount() {
+		return mPendingMax - mPendingPermits.availablePermits();
+	}
+
+	@Override
+	public void onOpen() {
+		add(new Callback<T>(Callback.OPEN, null, null));
+	}
+
+	@Override
+	public void onMessage(String message) {
+		String dropped = null;
+		try {
+			if (!mPendingPermits.tryAcquire(mPendingTimeout, TimeUnit.MILLISECONDS)) {
+				dropped = "Decode queue full, dropped a message";
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			dropped = "Interrupted while waiting for the decode queue, dropped a message";
+		}
+		if (dropped != null) {
+			add(new Callback<T>(Callback.ERROR, dropped, ListenerDispatcher.ERROR_CODE_OVERFLOW));
+			return;
+		}
+
+		final Callback<T> callback = new Callback<T>(Callback.MESSAGE, message, null);
+		mCallbacks.add(callback);
+
+		Runnable decoder = new Runnable() {
+			@Override
+			public void run() {
+				decode(callback);
+				scheduleDelivery();
+			}
+		};
+		try {
+			mExecutor.execute(decoder);
+		} catch (RejectedExecutionException e) {
+			decoder.run();
+		}
+	}
+
+	@Override
+	public void onClose() {
+		add(new Callback<T>(Callback.CLOSE, null, null));
+	}
+
+	@Override
+	public void onError(Integer errorCode, String description) {
+		add(new Callback<T>(Callback.ERROR, description, errorCode));
+	}
+
+	/**
+	 * Queue a callback that doesn't need decoding, it's delivered once the messages
+	 * before it have been
+	 * @param callback
+	 */
+	private void add(Callback<T> callback) {
+		callback.mReady = true;
+		mCallbacks.add(callback);
+		scheduleDelivery();
+	}
+
+	/**
+	 * Decode a message and mark it as ready
+	 * @param callback
+	 */
+	private void decode(Callback<T> callback) {
+		try {
+			callback.mValue = mCodec.decode(callback.mText);
+		} catch (IOException e) {
+			callback.mFailure = e;
+		} catch (RuntimeException e) {
+			callback.mFailure = e;
+		}
+		callback.mReady = true;
+	}
+
+	/**
+	 * Let the delivery executor deliver the callbacks that are ready. Has to be called
+	 * after a callback has become ready. A delivery that has been queued but hasn't
+	 * started yet will see it, so no second one is queued.
+	 */
+	private void scheduleDelivery() {
+		if (mDeliveryScheduled.compareAndSet(false, true)) {
+			mDeliveryExecutor.execute(mDelivery);
+		}
+	}
+
+	/**
+	 * Deliver the callbacks at the head of the queue that are ready. Only runs on the
+	 * delivery executor, so only one thread delivers at a time.
+	 */
+	private void deliverReady() {
+		Callback<T> head = mCallbacks.peek();
+		while (head != null && head.mReady) {
+			mCallbacks.poll();
+			deliver(head);
+			head = mCallbacks.peek();
+		}
+	}
+
+	/**
+	 * Call the listener. An exception thrown by the listener doesn't stop delivery, it's
+	 * reported to onError, or to the uncaught exception handler if onError threw it.
+	 * @param callback
+	 */
+	private void deliver(Callback<T> callback) {
+		try {
+			switch (callback.mType) {
+			case Callback.OPEN:
+				mListener.onOpen();
+				break;
+			case Callback.MESSAGE:
+				mPendingPermits.release();
+				if (callback.mFailure != null) {
+					mListener.onInvalidMessage(callback.mText, callback.mFailure);
+				} else {
+					mListener.onMessage(callback.mValue);
+				}
+				break;
+			case Callback.CLOSE:
+				mListener.onClose();
+				break;
+			case Callback.ERROR:
+				mListener.onError(callback.mErrorCode, callback.mText);
+				break;
+			}
+		} catch (RuntimeException e) {
+			try {
+				if (callback.mType != Callback.ERROR) {
+					mListener.onError(500, "Listener threw " + e);
+					return;
+				}
+			} catch (RuntimeException e1) {
+				// Reported below
+			}
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+		}
+	}
+
+	/**
+	 * A received callback
+	 * @param <T> type of the decoded messages
+	 */
+	private static class Callback<T> {
+		static final int OPEN = 0;
+		static final int MESSAGE = 1;
+		static final int CLOSE = 2;
+		static final int ERROR = 3;
+
+		final int mType;
+		/** Message or error description */
+		final String mText;
+		final Integer mErrorCode;
+		T mValue = null;
+		Exception mFailure = null;
+		/** Set after the message has been decoded, publishes mValue and mFailure */
+		volatile boolean mReady = false;
+
+		/**
+		 * @param type
+		 * @param text message or error description
+		 * @param errorCode
+		 */
+		Callback(int type, String text, Integer errorCode) {
+			mType = type;
+			mText = text;
+			mErrorCode = errorCode;
+		}
+	}
+}
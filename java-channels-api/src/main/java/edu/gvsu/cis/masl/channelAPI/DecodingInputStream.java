@@ -0,0 +1,359 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a gzip or deflate response body as it arrives. Unlike GZIPInputStream,
+ * {@link #available()} only reports bytes that have actually been decompressed, so a
+ * long-poll response can still be read without blocking (see
+ * {@link SubmissionFramer#read(boolean)}). A "deflate" body is accepted both with the
+ * zlib wrapper the specification asks for and as raw deflate data, which some servers
+ * send instead. Only the first member of a gzip body is read.
+ */
+class DecodingInputStream extends InputStream {
+	/** Value of the Accept-Encoding header for the encodings that can be decoded */
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+	/** Size of the compressed and decompressed buffers */
+	private static final int BUFFER_SIZE = 8192;
+	/** Length of the fixed part of the gzip header */
+	private static final int GZIP_HEADER_LENGTH = 10;
+	/** Length of the gzip trailer: CRC-32 and size */
+	private static final int GZIP_TRAILER_LENGTH = 8;
+	private static final int GZIP_FLAG_HEADER_CRC = 2;
+	private static final int GZIP_FLAG_EXTRA = 4;
+	private static final int GZIP_FLAG_NAME = 8;
+	private static final int GZIP_FLAG_COMMENT = 16;
+
+	/**
+	 * Which part of the body is being read
+	 */
+	private enum State {
+		/** The gzip header or the first bytes of a deflate body */
+		HEADER,
+		/** The compressed data */
+		DATA,
+		/** The gzip trailer */
+		TRAILER,
+		/** Everything has been decompressed */
+		ENDED
+	}
+
+	private InputStream mInputStream;
+	private boolean mGzip;
+	private Inflater mInflater = null;
+	private CRC32 mCrc = null;
+	private State mState = State.HEADER;
+	/** Compressed bytes that haven't been given to the inflater yet */
+	private byte[] mInput = new byte[BUFFER_SIZE];
+	private int mInputPosition = 0;
+	private int mInputLimit = 0;
+	/** Decompressed bytes that haven't been read yet */
+	private byte[] mOutput = new byte[BUFFER_SIZE];
+	private int mOutputPosition = 0;
+	private int mOutputLimit = 0;
+	private long mDecodedCount = 0;
+
+	/**
+	 * @param inputStream the compressed body
+	 * @param gzip true for gzip, false for deflate
+	 */
+	DecodingInputStream(InputStream inputStream, boolean gzip) {
+		mInputStream = inputStream;
+		mGzip = gzip;
+	}
+
+	/**
+	 * Ask the server for a compressed response. Call before the request is sent.
+	 * @param connection
+	 * @return the connection
+	 */
+	static HttpURLConnection acceptCompressed(HttpURLConnection connection) {
+		connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+		return connection;
+	}
+
+	/**
+	 * Get the response body, decompressed if the server compressed it
+	 * @param connection connection with a successful response
+	 * @param metrics counts the bytes received and the bytes after decompression
+	 * @return the decompressed response body
+	 * @throws IOException if the response failed or has an unknown Content-Encoding
+	 */
+	static InputStream open(HttpURLConnection connection, ChannelMetrics metrics) throws IOException {
+		InputStream inputStream = connection.getInputStream();
+		String encoding = connection.getContentEncoding();
+		encoding = encoding != null ? encoding.trim().toLowerCase(Locale.ENGLISH) : "";
+
+		boolean gzip;
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			gzip = true;
+		} else if (encoding.equals("deflate")) {
+			gzip = false;
+		} else if (encoding.isEmpty() || encoding.equals("identity")) {
+			return metrics.isEnabled() ? new CountingInputStream(inputStream, metrics, true, true) : inputStream;
+		} else {
+			inputStream.close();
+			throw new IOException("Unsupported Content-Encoding: " + encoding);
+		}
+
+		if (metrics.isEnabled()) {
+			inputStream = new CountingInputStream(inputStream, metrics, true, false);
+			return new CountingInputStream(new DecodingInputStream(inputStream, gzip), metrics, false, true);
+		}
+		return new DecodingInputStream(inputStream, gzip);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] single = new byte[1];
+		int count = read(single, 0, 1);
+		return count > 0 ? single[0] & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (mOutputPosition == mOutputLimit && decode(true) < 0) {
+			return -1;
+		}
+
+		int count = Math.min(length, mOutputLimit - mOutputPosition);
+		System.arraycopy(mOutput, mOutputPosition, buffer, offset, count);
+		mOutputPosition += count;
+		return count;
+	}
+
+	/**
+	 * @return number of decompressed bytes that can be read without blocking. Decompresses
+	 *         the compressed bytes that have arrived to find out.
+	 */
+	@Override
+	public int available() throws IOException {
+		if (mOutputPosition == mOutputLimit) {
+			decode(false);
+		}
+		return mOutputLimit - mOutputPosition;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (mInflater != null) {
+			mInflater.end();
+			mInflater = null;
+		}
+		mState = State.ENDED;
+		mInputStream.close();
+	}
+
+	/**
+	 * Decompress more bytes into the empty output buffer
+	 * @param block true to wait for the server if the bytes that have arrived don't
+	 *        decompress to anything, false to only use what has arrived
+	 * @return number of bytes decompressed, 0 if nothing could be decompressed without
+	 *         blocking, -1 if the body has ended
+	 * @throws IOException
+	 */
+	private int decode(boolean block) throws IOException {
+		mOutputPosition = 0;
+		mOutputLimit = 0;
+		while (true) {
+			switch (mState) {
+			case HEADER:
+				if (readHeader()) {
+					mState = State.DATA;
+				} else if (!fill(block)) {
+					return 0;
+				}
+				break;
+
+			case DATA: {
+				if (mInflater.needsInput()) {
+					if (mInputPosition == mInputLimit && !fill(block)) {
+						return 0;
+					}
+					mInflater.setInput(mInput, mInputPosition, mInputLimit - mInputPosition);
+					mInputPosition = mInputLimit;
+				}
+
+				int count;
+				try {
+					count = mInflater.inflate(mOutput);
+				} catch (DataFormatException e) {
+					throw new IOException("Invalid compressed data", e);
+				}
+				if (mInflater.finished()) {
+					// Give back what the inflater didn't use, the gzip trailer starts there
+					mInputPosition = mInputLimit - mInflater.getRemaining();
+					mState = mGzip ? State.TRAILER : State.ENDED;
+				} else if (count == 0 && mInflater.needsDictionary()) {
+					throw new IOException("Compressed data needs a preset dictionary");
+				}
+				if (count > 0) {
+					if (mCrc != null) {
+						mCrc.update(mOutput, 0, count);
+					}
+					mDecodedCount += count;
+					mOutputLimit = count;
+					return count;
+				}
+				break;
+			}
+
+			case TRAILER:
+				if (mInputLimit - mInputPosition >= GZIP_TRAILER_LENGTH) {
+					readTrailer();
+					mState = State.ENDED;
+				} else if (!fill(block)) {
+					return 0;
+				}
+				break;
+
+			case ENDED:
+				// Read the rest of the response, so the connection can be reused
+				if (block) {
+					mInputPosition = 0;
+					mInputLimit = 0;
+					while (mInputStream.read(mInput) >= 0) {
+						// Discard
+					}
+				}
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Read the gzip header, or find out whether a deflate body has the zlib wrapper, and
+	 * create the inflater
+	 * @return false if the rest of the header hasn't arrived yet
+	 * @throws IOException if the header is invalid
+	 */
+	private boolean readHeader() throws IOException {
+		int available = mInputLimit - mInputPosition;
+		if (!mGzip) {
+			if (available < 2) {
+				return false;
+			}
+			int first = mInput[mInputPosition] & 0xff;
+			int second = mInput[mInputPosition + 1] & 0xff;
+			boolean zlib = (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+			mInflater = new Inflater(!zlib);
+			return true;
+		}
+
+		if (available < GZIP_HEADER_LENGTH) {
+			return false;
+		}
+		if ((mInput[mInputPosition] & 0xff) != 0x1f || (mInput[mInputPosition + 1] & 0xff) != 0x8b) {
+			throw new IOException("Not in gzip format");
+		}
+		if (mInput[mInputPosition + 2] != 8) {
+			throw new IOException("Unsupported gzip compression method");
+		}
+		int flags = mInput[mInputPosition + 3] & 0xff;
+		int position = mInputPosition + GZIP_HEADER_LENGTH;
+
+		if ((flags & GZIP_FLAG_EXTRA) != 0) {
+			if (mInputLimit - position < 2) {
+				return false;
+			}
+			position += 2 + ((mInput[position] & 0xff) | ((mInput[position + 1] & 0xff) << 8));
+		}
+		if ((flags & GZIP_FLAG_NAME) != 0) {
+			position = skipZeroTerminated(position);
+		}
+		if ((flags & GZIP_FLAG_COMMENT) != 0 && position >= 0) {
+			position = skipZeroTerminated(position);
+		}
+		if ((flags & GZIP_FLAG_HEADER_CRC) != 0 && position >= 0) {
+			position += 2;
+		}
+		if (position < 0 || position > mInputLimit) {
+			return false;
+		}
+
+		mInputPosition = position;
+		mInflater = new Inflater(true);
+		mCrc = new CRC32();
+		return true;
+	}
+
+	/**
+	 * @param position where a zero-terminated header field starts
+	 * @return position after the field, -1 if its end hasn't arrived yet
+	 */
+	private int skipZeroTerminated(int position) {
+		for (int i = position; i < mInputLimit; i++) {
+			if (mInput[i] == 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Check the gzip trailer against what was decompressed
+	 * @throws IOException if it doesn't match
+	 */
+	private void readTrailer() throws IOException {
+		long crc = readIntLittleEndian(mInputPosition) & 0xffffffffL;
+		long size = readIntLittleEndian(mInputPosition + 4) & 0xffffffffL;
+		mInputPosition += GZIP_TRAILER_LENGTH;
+		if (crc != mCrc.getValue() || size != (mDecodedCount & 0xffffffffL)) {
+			throw new IOException("Corrupt gzip trailer");
+		}
+	}
+
+	/**
+	 * @param position
+	 * @return the little-endian int in the input buffer at the position
+	 */
+	private int readIntLittleEndian(int position) {
+		return (mInput[position] & 0xff) | ((mInput[position + 1] & 0xff) << 8) | ((mInput[position + 2] & 0xff) << 16)
+				| ((mInput[position + 3] & 0xff) << 24);
+	}
+
+	/**
+	 * Read more compressed bytes, keeping the ones that haven't been used. The buffer grows
+	 * if it's full, which only happens for a gzip header with large fields.
+	 * @param block true to wait for the server, false to only read what has arrived
+	 * @return false if nothing was read because nothing has arrived
+	 * @throws IOException
+	 * @throws EOFException if the body ended before the compressed data did
+	 */
+	private boolean fill(boolean block) throws IOException {
+		int remaining = mInputLimit - mInputPosition;
+		if (mInputPosition > 0) {
+			System.arraycopy(mInput, mInputPosition, mInput, 0, remaining);
+			mInputPosition = 0;
+			mInputLimit = remaining;
+		}
+		if (mInputLimit == mInput.length) {
+			mInput = Arrays.copyOf(mInput, mInput.length * 2);
+		}
+
+		int maxRead = mInput.length - mInputLimit;
+		if (!block) {
+			maxRead = Math.min(maxRead, mInputStream.available());
+			if (maxRead == 0) {
+				return false;
+			}
+		}
+		int count = mInputStream.read(mInput, mInputLimit, maxRead);
+		if (count < 0) {
+			throw new EOFException("Compressed response ended early");
+		}
+		mInputLimit += count;
+		return count > 0;
+	}
+}
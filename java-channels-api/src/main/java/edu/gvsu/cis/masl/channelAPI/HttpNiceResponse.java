@@ -3,8 +3,6 @@ package edu.gvsu.cis.masl.channelAPI;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 
-import com.spiddekauga.http.HttpResponseParser;
-
 /**
  * Nice wrapper for HTTP responses
  */
@@ -12,20 +10,47 @@ public class HttpNiceResponse {
 	private String mResponseText;
 	private Integer mStatus;
 	private String mStatusText;
+	private int mContentLength;
 
 	/**
-	 * Handles the Response of a HttpRequest, grab data later by using Getters
+	 * Handles the Response of a HttpRequest, grab data later by using Getters. The whole
+	 * response is read so the connection can be reused for the next request.
 	 * @param connection HTTP connection
 	 * @throws IOException
 	 */
 	public HttpNiceResponse(HttpURLConnection connection) throws IOException {
+		this(connection, ChannelMetrics.DISABLED);
+	}
+
+	/**
+	 * Handles the Response of a HttpRequest, decompressing it if the server compressed it
+	 * @param connection HTTP connection
+	 * @param metrics counts the bytes received and the bytes after decompression
+	 * @throws IOException
+	 */
+	HttpNiceResponse(HttpURLConnection connection, ChannelMetrics metrics) throws IOException {
 		mStatus = connection.getResponseCode();
 		mStatusText = connection.getResponseMessage();
+		mContentLength = connection.getContentLength();
 
 		// OK -> Get message
 		if (mStatus == HttpURLConnection.HTTP_OK) {
-			mResponseText = HttpResponseParser.getStringResponse(connection);
+			mResponseText = ConnectionPool.readResponse(connection, metrics);
+		} else {
+			ConnectionPool.release(connection);
+		}
+	}
+
+	/**
+	 * @return length of the response body in bytes as reported by the server (compressed
+	 *         if the server compressed it), or the length of the response text if the
+	 *         server didn't report it
+	 */
+	public int getContentLength() {
+		if (mContentLength < 0 && mResponseText != null) {
+			return mResponseText.length();
 		}
+		return mContentLength;
 	}
 
 	// @formatter:off
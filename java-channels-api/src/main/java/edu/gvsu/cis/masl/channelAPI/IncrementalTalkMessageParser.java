@@ -0,0 +1,302 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.InvalidMessageException;
+
+/**
+ * Parses a submission while it's still arriving. The submission is decoded into one
+ * buffer, and every call to {@link #parse(int)} continues where the previous call
+ * stopped and reports the entries that are complete to the handler. Strings and numbers
+ * that are cut off are scanned again from where the scan stopped once more characters
+ * have arrived, and then read with the {@link TalkMessageTokenizer}. The entries reported
+ * are the same as {@link TalkMessage#parse(TalkMessageTokenizer, TalkMessageHandler)}
+ * reports for the whole submission.
+ */
+class IncrementalTalkMessageParser {
+	/** Returned when the next character hasn't arrived yet */
+	private static final int NOT_ARRIVED = -2;
+
+	/**
+	 * Where in the submission the parser is
+	 */
+	private enum State {
+		/** Before the outermost message */
+		START,
+		/** Expecting an entry or the end of the current message */
+		ENTRY,
+		/** Expecting a comma or the end of the current message */
+		AFTER_ENTRY,
+		/** Inside a string */
+		STRING,
+		/** Inside a number */
+		NUMBER,
+		/** Skipping a null or unparsable entry */
+		SKIP,
+		/** The outermost message has ended, the rest of the submission is ignored */
+		DONE
+	}
+
+	private TalkMessageTokenizer mTokenizer = new TalkMessageTokenizer();
+	private TalkMessageHandler mHandler = null;
+	private char[] mBuffer = null;
+	private int mLength = 0;
+	private int mAvailable = 0;
+	private int mPosition = 0;
+	private State mState = State.DONE;
+	private int mDepth = 0;
+	/** Where the string or number being read starts */
+	private int mTokenStart = 0;
+	/** How far the string or number being read has been scanned */
+	private int mScanPosition = 0;
+	private char mQuote = '"';
+
+	/**
+	 * Start parsing a new submission
+	 * @param buffer the submission is decoded into this buffer, starting at index 0. It
+	 *        must not be changed until the submission has been parsed.
+	 * @param length number of characters in the whole submission
+	 * @param handler receives the entries
+	 */
+	void start(char[] buffer, int length, TalkMessageHandler handler) {
+		mBuffer = buffer;
+		mLength = length;
+		mHandler = handler;
+		mAvailable = 0;
+		mPosition = 0;
+		mState = State.START;
+		mDepth = 0;
+	}
+
+	/**
+	 * Parse the characters that have arrived since the last call
+	 * @param available number of characters of the submission that have arrived
+	 * @return true if the outermost message has ended
+	 * @throws InvalidMessageException
+	 */
+	boolean parse(int available) throws InvalidMessageException {
+		mAvailable = available;
+		while (mState != State.DONE) {
+			switch (mState) {
+			case START: {
+				int ch = nextNonWhitespace();
+				if (ch == NOT_ARRIVED) {
+					return false;
+				} else if (ch != '[') {
+					throw new InvalidMessageException("Expected initial [");
+				}
+				startMessage();
+				break;
+			}
+
+			case ENTRY: {
+				int ch = nextNonWhitespace();
+				if (ch == NOT_ARRIVED) {
+					return false;
+				}
+				startEntry(ch);
+				break;
+			}
+
+			case AFTER_ENTRY: {
+				int ch = nextNonWhitespace();
+				if (ch == NOT_ARRIVED) {
+					return false;
+				} else if (ch == ',') {
+					mState = State.ENTRY;
+				} else if (ch == ']') {
+					endMessage();
+				} else {
+					throw new InvalidMessageException("Expected , or ], found " + ((char) ch));
+				}
+				break;
+			}
+
+			case STRING:
+				if (!readString()) {
+					return false;
+				}
+				break;
+
+			case NUMBER:
+				if (!readNumber()) {
+					return false;
+				}
+				break;
+
+			case SKIP:
+				if (!skipToNextEntry()) {
+					return false;
+				}
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Start reading an entry, or end the message
+	 * @param ch first character of the entry, -1 if the submission has ended
+	 * @throws InvalidMessageException
+	 */
+	private void startEntry(int ch) throws InvalidMessageException {
+		if (ch == ']') {
+			endMessage();
+		} else if (ch < 0) {
+			throw new InvalidMessageException("Unexpected end-of-message.");
+		} else if (ch == '[') {
+			startMessage();
+		} else if (ch == '\"' || ch == '\'') {
+			mQuote = (char) ch;
+			mTokenStart = mPosition;
+			mScanPosition = mPosition;
+			mState = State.STRING;
+		}
+		// Blank entry
+		else if (ch == ',') {
+			mHandler.emptyValue();
+			mState = State.ENTRY;
+		}
+		// Null entry
+		else if (ch == 'n') {
+			mHandler.emptyValue();
+			mState = State.SKIP;
+		}
+		// Assume it's a number
+		else {
+			if (!Character.isDigit(ch)) {
+				throw new InvalidMessageException("Expected a value, found " + ((char) ch));
+			}
+			mTokenStart = mPosition - 1;
+			mScanPosition = mPosition;
+			mState = State.NUMBER;
+		}
+	}
+
+	/**
+	 * A (recursive) message starts
+	 * @throws InvalidMessageException
+	 */
+	private void startMessage() throws InvalidMessageException {
+		mHandler.startMessage();
+		mDepth++;
+		mState = State.ENTRY;
+	}
+
+	/**
+	 * The current message ends
+	 * @throws InvalidMessageException
+	 */
+	private void endMessage() throws InvalidMessageException {
+		mHandler.endMessage();
+		mDepth--;
+		mState = mDepth == 0 ? State.DONE : State.AFTER_ENTRY;
+	}
+
+	/**
+	 * Read the string once its end has arrived
+	 * @return false if the end of the string hasn't arrived yet
+	 * @throws InvalidMessageException
+	 */
+	private boolean readString() throws InvalidMessageException {
+		int scan = mScanPosition;
+		boolean ended = false;
+		while (scan < mAvailable) {
+			char ch = mBuffer[scan];
+			if (ch == mQuote || ch == '\0') {
+				ended = true;
+				break;
+			} else if (ch == '\\') {
+				// Wait for the escaped character
+				if (scan + 1 == mAvailable) {
+					break;
+				}
+				scan += 2;
+			} else {
+				scan++;
+			}
+		}
+		if (!ended && mAvailable < mLength) {
+			mScanPosition = scan;
+			return false;
+		}
+
+		mTokenizer.reset(mBuffer, mTokenStart, mAvailable - mTokenStart);
+		CharSequence value = mTokenizer.readString(mQuote);
+		mPosition = mTokenizer.getPosition();
+		mState = State.AFTER_ENTRY;
+		mHandler.stringValue(value);
+		return true;
+	}
+
+	/**
+	 * Read the number once its end has arrived
+	 * @return false if the end of the number hasn't arrived yet
+	 * @throws InvalidMessageException
+	 */
+	private boolean readNumber() throws InvalidMessageException {
+		int scan = mScanPosition;
+		while (scan < mAvailable && Character.isDigit(mBuffer[scan])) {
+			scan++;
+		}
+		if (scan == mAvailable && mAvailable < mLength) {
+			mScanPosition = scan;
+			return false;
+		}
+
+		mTokenizer.reset(mBuffer, mTokenStart + 1, mAvailable - mTokenStart - 1);
+		try {
+			long numValue = mTokenizer.readNumber(mBuffer[mTokenStart]);
+			mPosition = mTokenizer.getPosition();
+			mState = State.AFTER_ENTRY;
+			mHandler.numberValue(numValue);
+		}
+		// Didn't fit in a long, add blank entry
+		catch (NumberFormatException e) {
+			mPosition = mTokenizer.getPosition();
+			mState = State.SKIP;
+			mHandler.emptyValue();
+		}
+		return true;
+	}
+
+	/**
+	 * Skip to the next entry. Like {@link TalkMessageTokenizer#skipToNextEntry()} the
+	 * closing ] is consumed, so a comma or ] is expected after it.
+	 * @return false if the next entry hasn't arrived yet
+	 */
+	private boolean skipToNextEntry() {
+		while (mPosition < mAvailable) {
+			char ch = mBuffer[mPosition++];
+			if (ch == ',') {
+				mState = State.ENTRY;
+				return true;
+			} else if (ch == ']') {
+				mState = State.AFTER_ENTRY;
+				return true;
+			}
+		}
+		if (mAvailable == mLength) {
+			mState = State.AFTER_ENTRY;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Skip all whitespace
+	 * @return first non-whitespace character, -1 if the submission has ended, or
+	 *         {@link #NOT_ARRIVED}
+	 */
+	private int nextNonWhitespace() {
+		while (mPosition < mAvailable) {
+			char ch = mBuffer[mPosition++];
+			if (!Character.isWhitespace(ch)) {
+				return ch;
+			}
+		}
+		return mAvailable == mLength ? -1 : NOT_ARRIVED;
+	}
+}
@@ -0,0 +1,521 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON codec that decodes in a single pass over the text, without a separate tokenizer
+ * or reader. Values are decoded to:
+ * <ul>
+ * <li>object - {@code Map<String, Object>}, in the order of the keys</li>
+ * <li>array - {@code List<Object>}</li>
+ * <li>string - String</li>
+ * <li>number - Long if it's an integer that fits, otherwise Double</li>
+ * <li>true, false - Boolean</li>
+ * <li>null - null</li>
+ * </ul>
+ * Encoding accepts the same types, and also any Iterable, Object[], CharSequence, Number
+ * or Character. The codec has no state, so {@link #INSTANCE} can be shared by all
+ * channels.
+ */
+public final class JsonCodec implements MessageCodec<Object> {
+	/** Shared instance */
+	public static final JsonCodec INSTANCE = new JsonCodec();
+	/** Max nesting of objects and arrays, so a hostile message can't overflow the stack */
+	private static final int DEPTH_MAX = 512;
+	/** Most digits an integer can have and always fit in a long */
+	private static final int LONG_DIGITS_SAFE = 18;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Use {@link #INSTANCE}
+	 */
+	private JsonCodec() {
+	}
+
+	@Override
+	public Object decode(CharSequence message) throws IOException {
+		Decoder decoder = new Decoder(message);
+		Object value = decoder.readValue(0);
+		if (decoder.skipWhitespace() >= 0) {
+			throw decoder.error("Unexpected text after the value");
+		}
+		return value;
+	}
+
+	@Override
+	public String encode(Object message) {
+		StringBuilder builder = new StringBuilder();
+		writeValue(builder, message);
+		return builder.toString();
+	}
+
+	/**
+	 * Decode a JSON object
+	 * @param message
+	 * @return the object
+	 * @throws IOException if the message isn't a valid JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> decodeObject(CharSequence message) throws IOException {
+		Object value = INSTANCE.decode(message);
+		if (!(value instanceof Map)) {
+			throw new IOException("Expected a JSON object");
+		}
+		return (Map<String, Object>) value;
+	}
+
+	/**
+	 * @param object decoded JSON object
+	 * @param key
+	 * @return the string value of the key
+	 * @throws IOException if the key doesn't have a string value
+	 */
+	static String getString(Map<String, Object> object, String key) throws IOException {
+		Object value = object.get(key);
+		if (!(value instanceof String)) {
+			throw new IOException("Expected a string for " + key);
+		}
+		return (String) value;
+	}
+
+	/**
+	 * Append the JSON for a value
+	 * @param builder
+	 * @param value
+	 * @throws IllegalArgumentException if the value, or a value in it, can't be encoded
+	 */
+	private static void writeValue(StringBuilder builder, Object value) {
+		if (value == null) {
+			builder.append("null");
+		} else if (value instanceof CharSequence || value instanceof Character) {
+			writeString(builder, value.toString());
+		} else if (value instanceof Boolean) {
+			builder.append(((Boolean) value).booleanValue());
+		} else if (value instanceof Number) {
+			writeNumber(builder, (Number) value);
+		} else if (value instanceof Map) {
+			builder.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					builder.append(',');
+				}
+				first = false;
+				writeString(builder, String.valueOf(entry.getKey()));
+				builder.append(':');
+				writeValue(builder, entry.getValue());
+			}
+			builder.append('}');
+		} else if (value instanceof Iterable || value instanceof Object[]) {
+			Iterable<?> elements = value instanceof Iterable ? (Iterable<?>) value : Arrays.asList((Object[]) value);
+			builder.append('[');
+			boolean first = true;
+			for (Object element : elements) {
+				if (!first) {
+					builder.append(',');
+				}
+				first = false;
+				writeValue(builder, element);
+			}
+			builder.append(']');
+		} else {
+			throw new IllegalArgumentException("Can't encode " + value.getClass().getName() + " as JSON");
+		}
+	}
+
+	/**
+	 * Append a number, which has to be finite
+	 * @param builder
+	 * @param number
+	 */
+	private static void writeNumber(StringBuilder builder, Number number) {
+		if (number instanceof Double || number instanceof Float) {
+			double value = number.doubleValue();
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				throw new IllegalArgumentException("Can't encode " + value + " as JSON");
+			}
+		}
+		builder.append(number.toString());
+	}
+
+	/**
+	 * Append a quoted string. Control characters and the line separators that JavaScript
+	 * doesn't allow in strings are escaped.
+	 * @param builder
+	 * @param string
+	 */
+	private static void writeString(StringBuilder builder, String string) {
+		builder.append('"');
+		int start = 0;
+		int length = string.length();
+		for (int i = 0; i < length; i++) {
+			char ch = string.charAt(i);
+			if (ch >= 0x20 && ch != '"' && ch != '\\' && ch != '\u2028' && ch != '\u2029') {
+				continue;
+			}
+
+			builder.append(string, start, i);
+			start = i + 1;
+			switch (ch) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			case '\b':
+				builder.append("\\b");
+				break;
+			case '\f':
+				builder.append("\\f");
+				break;
+			default:
+				builder.append("\\u").append(HEX_DIGITS[ch >> 12]).append(HEX_DIGITS[(ch >> 8) & 0xf])
+						.append(HEX_DIGITS[(ch >> 4) & 0xf]).append(HEX_DIGITS[ch & 0xf]);
+			}
+		}
+		builder.append(string, start, length);
+		builder.append('"');
+	}
+
+	/**
+	 * Decodes one message
+	 */
+	private static class Decoder {
+		private final CharSequence mText;
+		private final int mLength;
+		private int mPosition = 0;
+		/** Reused for strings with escaped characters */
+		private StringBuilder mScratch = null;
+
+		/**
+		 * @param text the message
+		 */
+		Decoder(CharSequence text) {
+			mText = text;
+			mLength = text.length();
+		}
+
+		/**
+		 * Skip whitespace
+		 * @return next character, which hasn't been consumed, -1 at the end of the text
+		 */
+		int skipWhitespace() {
+			while (mPosition < mLength) {
+				char ch = mText.charAt(mPosition);
+				if (ch != ' ' && ch != '\n' && ch != '\r' && ch != '\t') {
+					return ch;
+				}
+				mPosition++;
+			}
+			return -1;
+		}
+
+		/**
+		 * @param depth number of objects and arrays the value is in
+		 * @return the next value
+		 * @throws IOException if the text isn't a valid value
+		 */
+		Object readValue(int depth) throws IOException {
+			int ch = skipWhitespace();
+			switch (ch) {
+			case '{':
+				return readObject(depth + 1);
+			case '[':
+				return readArray(depth + 1);
+			case '"':
+				mPosition++;
+				return readString();
+			case 't':
+				readLiteral("true");
+				return Boolean.TRUE;
+			case 'f':
+				readLiteral("false");
+				return Boolean.FALSE;
+			case 'n':
+				readLiteral("null");
+				return null;
+			case -1:
+				throw error("Expected a value, found the end of the text");
+			default:
+				if (ch == '-' || (ch >= '0' && ch <= '9')) {
+					return readNumber();
+				}
+				throw error("Expected a value, found " + (char) ch);
+			}
+		}
+
+		/**
+		 * @param depth nesting of the object
+		 * @return the object starting at the current position
+		 * @throws IOException
+		 */
+		private Map<String, Object> readObject(int depth) throws IOException {
+			checkDepth(depth);
+			mPosition++;
+			Map<String, Object> object = new LinkedHashMap<String, Object>();
+			if (skipWhitespace() == '}') {
+				mPosition++;
+				return object;
+			}
+
+			while (true) {
+				if (skipWhitespace() != '"') {
+					throw error("Expected a key");
+				}
+				mPosition++;
+				String key = readString();
+				if (skipWhitespace() != ':') {
+					throw error("Expected :");
+				}
+				mPosition++;
+				object.put(key, readValue(depth));
+
+				int ch = skipWhitespace();
+				mPosition++;
+				if (ch == '}') {
+					return object;
+				} else if (ch != ',') {
+					mPosition--;
+					throw error("Expected , or }");
+				}
+			}
+		}
+
+		/**
+		 * @param depth nesting of the array
+		 * @return the array starting at the current position
+		 * @throws IOException
+		 */
+		private List<Object> readArray(int depth) throws IOException {
+			checkDepth(depth);
+			mPosition++;
+			List<Object> array = new ArrayList<Object>();
+			if (skipWhitespace() == ']') {
+				mPosition++;
+				return array;
+			}
+
+			while (true) {
+				array.add(readValue(depth));
+
+				int ch = skipWhitespace();
+				mPosition++;
+				if (ch == ']') {
+					return array;
+				} else if (ch != ',') {
+					mPosition--;
+					throw error("Expected , or ]");
+				}
+			}
+		}
+
+		/**
+		 * Read a string, the opening quote has been consumed. Strings without escaped
+		 * characters are taken from the text in one copy.
+		 * @return the string
+		 * @throws IOException
+		 */
+		private String readString() throws IOException {
+			int start = mPosition;
+			while (mPosition < mLength) {
+				char ch = mText.charAt(mPosition);
+				if (ch == '"') {
+					mPosition++;
+					return mText.subSequence(start, mPosition - 1).toString();
+				} else if (ch == '\\') {
+					break;
+				} else if (ch < 0x20) {
+					throw error("Control character in string");
+				}
+				mPosition++;
+			}
+
+			if (mScratch == null) {
+				mScratch = new StringBuilder();
+			}
+			mScratch.setLength(0);
+			mScratch.append(mText, start, mPosition);
+			while (mPosition < mLength) {
+				char ch = mText.charAt(mPosition++);
+				if (ch == '"') {
+					return mScratch.toString();
+				} else if (ch == '\\') {
+					mScratch.append(readEscape());
+				} else if (ch < 0x20) {
+					mPosition--;
+					throw error("Control character in string");
+				} else {
+					mScratch.append(ch);
+				}
+			}
+			throw error("Unterminated string");
+		}
+
+		/**
+		 * @return the character escaped by the sequence after a backslash
+		 * @throws IOException
+		 */
+		private char readEscape() throws IOException {
+			if (mPosition == mLength) {
+				throw error("Unterminated string");
+			}
+			char ch = mText.charAt(mPosition++);
+			switch (ch) {
+			case '"':
+			case '\\':
+			case '/':
+				return ch;
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'u':
+				if (mLength - mPosition < 4) {
+					throw error("Incomplete unicode escape");
+				}
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(mText.charAt(mPosition++), 16);
+					if (digit < 0) {
+						mPosition--;
+						throw error("Invalid unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			default:
+				mPosition--;
+				throw error("Invalid escape \\" + ch);
+			}
+		}
+
+		/**
+		 * @return the number starting at the current position
+		 * @throws IOException
+		 */
+		private Number readNumber() throws IOException {
+			int start = mPosition;
+			boolean negative = mText.charAt(mPosition) == '-';
+			if (negative) {
+				mPosition++;
+			}
+
+			int digitsStart = mPosition;
+			long value = 0;
+			while (mPosition < mLength) {
+				char ch = mText.charAt(mPosition);
+				if (ch < '0' || ch > '9') {
+					break;
+				}
+				value = value * 10 + (ch - '0');
+				mPosition++;
+			}
+			int digitCount = mPosition - digitsStart;
+			if (digitCount == 0) {
+				throw error("Expected a digit");
+			}
+			if (digitCount > 1 && mText.charAt(digitsStart) == '0') {
+				throw error("Leading zero in number");
+			}
+
+			boolean integer = true;
+			if (mPosition < mLength && mText.charAt(mPosition) == '.') {
+				integer = false;
+				mPosition++;
+				skipDigits();
+			}
+			if (mPosition < mLength && (mText.charAt(mPosition) == 'e' || mText.charAt(mPosition) == 'E')) {
+				integer = false;
+				mPosition++;
+				if (mPosition < mLength && (mText.charAt(mPosition) == '+' || mText.charAt(mPosition) == '-')) {
+					mPosition++;
+				}
+				skipDigits();
+			}
+
+			if (integer && digitCount <= LONG_DIGITS_SAFE) {
+				return negative ? -value : value;
+			}
+			String number = mText.subSequence(start, mPosition).toString();
+			if (integer) {
+				try {
+					return Long.parseLong(number);
+				} catch (NumberFormatException e) {
+					// Too large for a long
+				}
+			}
+			return Double.parseDouble(number);
+		}
+
+		/**
+		 * Skip the digits of a fraction or exponent, there has to be at least one
+		 * @throws IOException
+		 */
+		private void skipDigits() throws IOException {
+			int start = mPosition;
+			while (mPosition < mLength && mText.charAt(mPosition) >= '0' && mText.charAt(mPosition) <= '9') {
+				mPosition++;
+			}
+			if (mPosition == start) {
+				throw error("Expected a digit");
+			}
+		}
+
+		/**
+		 * Consume true, false or null
+		 * @param literal
+		 * @throws IOException if the text doesn't match
+		 */
+		private void readLiteral(String literal) throws IOException {
+			int length = literal.length();
+			if (mLength - mPosition < length) {
+				throw error("Expected " + literal);
+			}
+			for (int i = 0; i < length; i++) {
+				if (mText.charAt(mPosition + i) != literal.charAt(i)) {
+					throw error("Expected " + literal);
+				}
+			}
+			mPosition += length;
+		}
+
+		/**
+		 * @param depth
+		 * @throws IOException if the nesting is too deep
+		 */
+		private void checkDepth(int depth) throws IOException {
+			if (depth > DEPTH_MAX) {
+				throw error("Nested deeper than " + DEPTH_MAX);
+			}
+		}
+
+		/**
+		 * @param description
+		 * @return exception for invalid JSON at the current position
+		 */
+		IOException error(String description) {
+			return new IOException("Invalid JSON at index " + mPosition + ": " + description);
+		}
+	}
+}
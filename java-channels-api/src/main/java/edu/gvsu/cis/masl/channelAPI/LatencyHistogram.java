@@ -0,0 +1,91 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets. Bucket i counts latencies below
+ * 2^i microseconds, so percentiles are accurate to within a factor of two, which is
+ * enough to tell a 10 ms request from a 1 s one.
+ */
+class LatencyHistogram {
+	/** Bucket 31 holds everything from 2^30 us (about 18 minutes) and up */
+	private static final int BUCKET_COUNT = 32;
+
+	private AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	private AtomicLong mCount = new AtomicLong();
+	private AtomicLong mSumNanos = new AtomicLong();
+	private AtomicLong mMaxNanos = new AtomicLong();
+
+	/**
+	 * Record a latency
+	 * @param nanos the latency in nanoseconds
+	 */
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		long micros = nanos / 1000;
+		int bucket = micros == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+		mBuckets.incrementAndGet(bucket);
+		mCount.incrementAndGet();
+		mSumNanos.addAndGet(nanos);
+
+		long max = mMaxNanos.get();
+		while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+			max = mMaxNanos.get();
+		}
+	}
+
+	/**
+	 * Clear all recorded latencies
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mBuckets.set(i, 0);
+		}
+		mCount.set(0);
+		mSumNanos.set(0);
+		mMaxNanos.set(0);
+	}
+
+	/**
+	 * @return the recorded latencies summarized in milliseconds
+	 */
+	LatencySnapshot getSnapshot() {
+		long[] buckets = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = mBuckets.get(i);
+			count += buckets[i];
+		}
+
+		double mean = count > 0 ? mSumNanos.get() / 1e6 / count : 0;
+		double max = mMaxNanos.get() / 1e6;
+		return new LatencySnapshot(count, mean, max, getPercentile(buckets, count, 0.5, max), getPercentile(buckets, count, 0.9, max), getPercentile(buckets,
+				count, 0.99, max));
+	}
+
+	/**
+	 * @param buckets bucket counts
+	 * @param count total count
+	 * @param percentile 0 to 1
+	 * @param max max latency in milliseconds, the percentile never exceeds it
+	 * @return upper bound of the bucket the percentile falls in, in milliseconds
+	 */
+	private static double getPercentile(long[] buckets, long count, double percentile, double max) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(count * percentile);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return Math.min(max, (1L << i) / 1000.0);
+			}
+		}
+		return max;
+	}
+}
@@ -0,0 +1,78 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+/**
+ * Summary of the latencies recorded for one phase, in milliseconds. Shown as a composite
+ * attribute in JMX consoles.
+ */
+public class LatencySnapshot {
+	private long mCount;
+	private double mMean;
+	private double mMax;
+	private double mP50;
+	private double mP90;
+	private double mP99;
+
+	/**
+	 * @param count number of recorded latencies
+	 * @param mean mean latency
+	 * @param max max latency
+	 * @param p50 median latency
+	 * @param p90 90th percentile
+	 * @param p99 99th percentile
+	 */
+	LatencySnapshot(long count, double mean, double max, double p50, double p90, double p99) {
+		mCount = count;
+		mMean = mean;
+		mMax = max;
+		mP50 = p50;
+		mP90 = p90;
+		mP99 = p99;
+	}
+
+	/**
+	 * @return number of recorded latencies
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return mean latency in milliseconds
+	 */
+	public double getMeanMillis() {
+		return mMean;
+	}
+
+	/**
+	 * @return max latency in milliseconds
+	 */
+	public double getMaxMillis() {
+		return mMax;
+	}
+
+	/**
+	 * @return median latency in milliseconds
+	 */
+	public double getP50Millis() {
+		return mP50;
+	}
+
+	/**
+	 * @return 90th percentile latency in milliseconds
+	 */
+	public double getP90Millis() {
+		return mP90;
+	}
+
+	/**
+	 * @return 99th percentile latency in milliseconds
+	 */
+	public double getP99Millis() {
+		return mP99;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", mCount, mMean, mP50, mP90, mP99, mMax);
+	}
+}
@@ -0,0 +1,321 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls a {@link ChannelService} from a dispatch thread of its own, so a slow listener
+ * doesn't stall the thread that reads from the network. Callbacks are queued in a
+ * bounded queue and delivered in order. Only messages are subject to the overflow
+ * policy, open, close and error callbacks wait for room in the queue. The wait is bounded
+ * by {@link #PUT_TIMEOUT_MS} so a hung listener can't hold the caller forever. A callback
+ * that doesn't get room in time, or whose thread is interrupted while waiting, is dropped
+ * and reported like a message dropped with {@link OverflowPolicy#FAIL_FAST}. The dispatch
+ * thread is started when a callback is queued and stops after it has been idle for a
+ * while, or as soon as the queue is empty once the dispatcher has been shut down. A
+ * {@link BatchChannelService} gets all messages waiting at the head of the queue in one
+ * call. An exception thrown by the listener is reported to its onError.
+ */
+class ListenerDispatcher implements BatchChannelService {
+	/** Error code reported when callbacks were dropped because the queue was full */
+	static final int ERROR_CODE_OVERFLOW = 503;
+	/** How long the dispatch thread waits for a callback before it stops */
+	private static final long IDLE_TIMEOUT_MS = 10000;
+	/** How long a callback waits for room in the queue before it's dropped */
+	private static final long PUT_TIMEOUT_MS = 1000;
+
+	private BlockingQueue<Event> mQueue;
+	private OverflowPolicy mOverflowPolicy;
+	private ThreadFactory mThreadFactory;
+	private volatile ChannelService mListener;
+	private Thread mWorker = null;
+	private volatile boolean mShutdown = false;
+	private AtomicLong mDroppedCount = new AtomicLong();
+	/** Callbacks dropped since the last overflow error was reported */
+	private AtomicLong mUnreportedCount = new AtomicLong();
+
+	/**
+	 * @param capacity max number of callbacks waiting to be delivered
+	 * @param overflowPolicy what to do with a new message when the queue is full
+	 * @param threadFactory creates the dispatch thread
+	 * @param listener receives the callbacks
+	 */
+	ListenerDispatcher(int capacity, OverflowPolicy overflowPolicy, ThreadFactory threadFactory, ChannelService listener) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+		}
+
+		mQueue = new ArrayBlockingQueue<Event>(capacity);
+		mOverflowPolicy = overflowPolicy;
+		mThreadFactory = threadFactory;
+		mListener = listener;
+	}
+
+	/**
+	 * Sets the listener that receives the callbacks that haven't been delivered yet
+	 * @param listener
+	 */
+	void setListener(ChannelService listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * @return number of callbacks waiting to be delivered
+	 */
+	int size() {
+		return mQueue.size();
+	}
+
+	/**
+	 * @return number of callbacks dropped because the queue was full
+	 */
+	long getDroppedCount() {
+		return mDroppedCount.get();
+	}
+
+	@Override
+	public void onOpen() {
+		put(new Event(Event.OPEN, null, null));
+	}
+
+	@Override
+	public void onMessage(String message) {
+		Event event = new Event(Event.MESSAGE, message, null);
+
+		switch (mOverflowPolicy) {
+		case BLOCK:
+			put(event);
+			break;
+
+		case FAIL_FAST:
+			if (!mQueue.offer(event)) {
+				drop();
+			}
+			startWorker();
+			break;
+
+		case DROP_OLDEST:
+			while (!mQueue.offer(event)) {
+				if (dropOldestMessage()) {
+					mDroppedCount.incrementAndGet();
+				} else {
+					put(event);
+					return;
+				}
+			}
+			startWorker();
+			break;
+		}
+	}
+
+	@Override
+	public void onMessages(List<String> messages) {
+		for (String message : messages) {
+			onMessage(message);
+		}
+	}
+
+	@Override
+	public void onClose() {
+		put(new Event(Event.CLOSE, null, null));
+	}
+
+	@Override
+	public void onError(Integer errorCode, String description) {
+		put(new Event(Event.ERROR, description, errorCode));
+	}
+
+	/**
+	 * Stop the dispatch thread once the callbacks that have been queued are delivered,
+	 * instead of waiting for more. Callbacks queued later are still delivered.
+	 */
+	void shutdown() {
+		mShutdown = true;
+		// Wakes the dispatch thread if it's waiting. If the queue is full, the thread
+		// sees the flag once it has emptied the queue.
+		if (mQueue.offer(new Event(Event.OVERFLOW, null, null))) {
+			startWorker();
+		}
+	}
+
+	/**
+	 * Queue a callback, waiting for room in the queue at most for {@link #PUT_TIMEOUT_MS}.
+	 * The callback is dropped if it doesn't get room in time or the thread is interrupted.
+	 * @param event
+	 */
+	private void put(Event event) {
+		try {
+			if (!mQueue.offer(event, PUT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				drop();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			drop();
+		}
+		startWorker();
+	}
+
+	/**
+	 * Count a callback that didn't fit in the queue, to be reported to onError
+	 */
+	private void drop() {
+		mDroppedCount.incrementAndGet();
+		mUnreportedCount.incrementAndGet();
+		// The error is reported before the next callback. If the queue has been emptied in
+		// the meantime, this wakes the dispatch thread to report it.
+		mQueue.offer(new Event(Event.OVERFLOW, null, null));
+	}
+
+	/**
+	 * Remove the oldest message from the queue
+	 * @return true if a message was removed, false if the queue only contains other
+	 *         callbacks
+	 */
+	private boolean dropOldestMessage() {
+		Iterator<Event> iterator = mQueue.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().mType == Event.MESSAGE) {
+				iterator.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Start the dispatch thread if it isn't running. Has to be called after a callback
+	 * has been queued, so the callback isn't left behind by a thread that is stopping.
+	 */
+	private synchronized void startWorker() {
+		if (mWorker == null) {
+			mWorker = mThreadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			});
+			mWorker.start();
+		}
+	}
+
+	/**
+	 * Deliver callbacks until the queue has been empty for {@link #IDLE_TIMEOUT_MS}, or
+	 * until it's empty once the dispatcher has been shut down
+	 */
+	private void dispatch() {
+		while (true) {
+			Event event;
+			try {
+				event = mShutdown ? mQueue.poll() : mQueue.poll(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			if (event == null) {
+				synchronized (this) {
+					if (mQueue.isEmpty()) {
+						mWorker = null;
+						return;
+					}
+				}
+				continue;
+			}
+
+			long unreported = mUnreportedCount.getAndSet(0);
+			if (unreported > 0) {
+				deliver(new Event(Event.ERROR, "Dispatch queue full, dropped " + unreported + " messages", ERROR_CODE_OVERFLOW));
+			}
+			if (event.mType != Event.OVERFLOW) {
+				deliver(event);
+			}
+		}
+	}
+
+	/**
+	 * Call the listener. An exception thrown by the listener doesn't stop the dispatch
+	 * thread, it's reported to onError, or to the uncaught exception handler if onError
+	 * threw it.
+	 * @param event
+	 */
+	private void deliver(Event event) {
+		ChannelService listener = mListener;
+		try {
+			switch (event.mType) {
+			case Event.OPEN:
+				listener.onOpen();
+				break;
+			case Event.MESSAGE:
+				if (listener instanceof ChannelViewService) {
+					((ChannelViewService) listener).onMessageView(event.mText);
+				} else if (listener instanceof BatchChannelService) {
+					((BatchChannelService) listener).onMessages(pollMessages(event));
+				} else {
+					listener.onMessage(event.mText);
+				}
+				break;
+			case Event.CLOSE:
+				listener.onClose();
+				break;
+			case Event.ERROR:
+				listener.onError(event.mErrorCode, event.mText);
+				break;
+			}
+		} catch (RuntimeException e) {
+			if (event.mType == Event.ERROR) {
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+			} else {
+				ChannelAPI.reportListenerException(listener, e);
+			}
+		}
+	}
+
+	/**
+	 * Take the messages waiting at the head of the queue
+	 * @param first the message that has already been taken
+	 * @return the first message and the messages that directly follow it
+	 */
+	private List<String> pollMessages(Event first) {
+		List<String> messages = new ArrayList<String>();
+		messages.add(first.mText);
+		Event next = mQueue.peek();
+		while (next != null && next.mType == Event.MESSAGE && mQueue.remove(next)) {
+			messages.add(next.mText);
+			next = mQueue.peek();
+		}
+		return messages;
+	}
+
+	/**
+	 * A queued callback
+	 */
+	private static class Event {
+		static final int OPEN = 0;
+		static final int MESSAGE = 1;
+		static final int CLOSE = 2;
+		static final int ERROR = 3;
+		/** Only wakes the dispatch thread, e.g. to report dropped messages */
+		static final int OVERFLOW = 4;
+
+		final int mType;
+		final String mText;
+		final Integer mErrorCode;
+
+		/**
+		 * @param type
+		 * @param text message or error description
+		 * @param errorCode
+		 */
+		Event(int type, String text, Integer errorCode) {
+			mType = type;
+			mText = text;
+			mErrorCode = errorCode;
+		}
+	}
+}
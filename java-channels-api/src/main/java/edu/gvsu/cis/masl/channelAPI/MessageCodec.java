@@ -0,0 +1,29 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+
+/**
+ * Converts between the text sent on a channel and application objects. Used by
+ * {@link DecodingChannelService} to decode received messages for a
+ * {@link TypedChannelService}, and by {@link ChannelAPI#send(Object, MessageCodec, String)}
+ * to encode messages. {@link JsonCodec} is the default implementation. A codec may be
+ * called from several threads at the same time, so it must be thread-safe.
+ * @param <T> type of the decoded messages
+ */
+public interface MessageCodec<T> {
+	/**
+	 * Decode a received message
+	 * @param message the message text, only valid during the call
+	 * @return the decoded message
+	 * @throws IOException if the message is invalid
+	 */
+	T decode(CharSequence message) throws IOException;
+
+	/**
+	 * Encode a message to send
+	 * @param message
+	 * @return the message text
+	 * @throws IOException if the message can't be encoded
+	 */
+	String encode(T message) throws IOException;
+}
@@ -0,0 +1,68 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers {@link ChannelMetrics} with the platform MBean server. Kept out of
+ * ChannelMetrics so that the metrics still work on platforms without JMX, like Android,
+ * where this class fails to load.
+ */
+class MetricsRegistration {
+	private static final String DOMAIN = "edu.gvsu.cis.masl.channelAPI";
+	private static final String PROCESS_NAME = "process";
+
+	/**
+	 * Only static methods
+	 */
+	private MetricsRegistration() {
+	}
+
+	/**
+	 * Register channel metrics, and the process metrics unless they already are
+	 * @param name name of the channel metrics
+	 * @param metrics the channel metrics
+	 * @throws IllegalArgumentException if the metrics couldn't be registered, e.g. if the
+	 *         name is taken
+	 */
+	static synchronized void register(String name, ChannelMetrics metrics) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName processName = getObjectName(PROCESS_NAME);
+			if (!server.isRegistered(processName)) {
+				server.registerMBean(ChannelMetrics.getProcessMetrics(), processName);
+			}
+			server.registerMBean(metrics, getObjectName(name));
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Couldn't register metrics " + name, e);
+		}
+	}
+
+	/**
+	 * Unregister channel metrics
+	 * @param name name the metrics were registered with
+	 */
+	static synchronized void unregister(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName(name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			// Does nothing
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return object name of the metrics
+	 * @throws JMException if the name isn't valid
+	 */
+	private static ObjectName getObjectName(String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=ChannelMetrics,name=" + ObjectName.quote(name));
+	}
+}
@@ -0,0 +1,317 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of outbound messages that are sent by a few I/O workers, so the threads
+ * that produce messages don't have to wait for the server. When batching is enabled a
+ * worker collects consecutive messages for the same URL pattern and sends them in one
+ * request, once the batch is full or the first message has waited for the linger time.
+ */
+class OutboundQueue {
+	/**
+	 * Sends a message to the server
+	 */
+	interface Sender {
+		/**
+		 * Send a message to the server, blocking until the server has responded
+		 * @param message the message to send
+		 * @param urlPattern where the server should look for the message. ex: "/chat"
+		 * @return HTTP status of the response
+		 * @throws IOException
+		 */
+		int send(String message, String urlPattern) throws IOException;
+
+		/**
+		 * Send several messages to the server in one request, blocking until the server
+		 * has responded
+		 * @param messages the messages to send, in order
+		 * @param urlPattern where the server should look for the messages. ex:
+		 *        "/chat-batch"
+		 * @return HTTP status of the response
+		 * @throws IOException
+		 */
+		int sendBatch(List<String> messages, String urlPattern) throws IOException;
+	}
+
+	private BlockingQueue<SendTask> mQueue;
+	private OverflowPolicy mOverflowPolicy;
+	private Sender mSender;
+	private List<Thread> mWorkers;
+	private volatile boolean mShutdown = false;
+	private volatile int mBatchMaxMessages = 1;
+	private volatile int mBatchMaxLength = Integer.MAX_VALUE;
+	private volatile long mBatchLingerMs = 0;
+
+	/**
+	 * Create the queue and start its workers
+	 * @param capacity max number of messages waiting to be sent
+	 * @param workerCount number of workers sending messages. Messages are only sent in
+	 *        order when there is a single worker.
+	 * @param overflowPolicy what to do when the queue is full
+	 * @param threadFactory creates the workers
+	 * @param sender sends the messages
+	 */
+	OutboundQueue(int capacity, int workerCount, OverflowPolicy overflowPolicy, ThreadFactory threadFactory, Sender sender) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+		}
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be at least 1, was " + workerCount);
+		}
+
+		mQueue = new ArrayBlockingQueue<SendTask>(capacity);
+		mOverflowPolicy = overflowPolicy;
+		mSender = sender;
+		mWorkers = new ArrayList<Thread>(workerCount);
+		for (int i = 0; i < workerCount; i++) {
+			Thread worker = threadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			});
+			mWorkers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Queue a message to be sent
+	 * @param message the message to send
+	 * @param urlPattern where the server should look for the message. ex: "/chat"
+	 * @return future HTTP status of the response. Fails with a
+	 *         RejectedExecutionException if the message couldn't be queued, and is
+	 *         cancelled if the message was dropped from the queue.
+	 */
+	Future<Integer> submit(String message, String urlPattern) {
+		SendTask task = new SendTask(message, urlPattern);
+
+		if (mShutdown) {
+			task.fail(new RejectedExecutionException("Outbound queue has been shut down"));
+			return task;
+		}
+
+		switch (mOverflowPolicy) {
+		case BLOCK:
+			try {
+				// Woken by shutdown() emptying the queue
+				mQueue.put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				task.fail(new RejectedExecutionException("Interrupted while waiting for the outbound queue", e));
+				return task;
+			}
+			break;
+
+		case FAIL_FAST:
+			if (!mQueue.offer(task)) {
+				task.fail(new RejectedExecutionException("Outbound queue is full"));
+				return task;
+			}
+			break;
+
+		case DROP_OLDEST:
+			while (!mQueue.offer(task)) {
+				SendTask dropped = mQueue.poll();
+				if (dropped != null) {
+					dropped.cancel(false);
+				}
+			}
+			break;
+		}
+
+		// shutdown() sets the flag before it empties the queue, so a task queued after
+		// that is seen here and doesn't stay in the queue
+		if (mShutdown && mQueue.remove(task)) {
+			task.fail(new RejectedExecutionException("Outbound queue has been shut down"));
+		}
+		return task;
+	}
+
+	/**
+	 * Send several messages in one request
+	 * @param maxMessages max number of messages in a batch, 1 disables batching
+	 * @param maxLength a batch is sent once the total length of its messages reaches this
+	 *        many characters
+	 * @param lingerMs max time in milliseconds to wait for more messages before sending a
+	 *        batch that isn't full
+	 */
+	void setBatching(int maxMessages, int maxLength, long lingerMs) {
+		if (maxMessages < 1) {
+			throw new IllegalArgumentException("maxMessages must be at least 1, was " + maxMessages);
+		}
+		mBatchMaxMessages = maxMessages;
+		mBatchMaxLength = maxLength;
+		mBatchLingerMs = lingerMs;
+	}
+
+	/**
+	 * @return number of messages waiting to be sent
+	 */
+	int size() {
+		return mQueue.size();
+	}
+
+	/**
+	 * Stop the workers and cancel all messages that haven't been sent. Messages submitted
+	 * during or after the shutdown fail with a RejectedExecutionException, also those of
+	 * producers that were waiting for room in the queue.
+	 */
+	void shutdown() {
+		mShutdown = true;
+		for (Thread worker : mWorkers) {
+			worker.interrupt();
+		}
+		SendTask task = mQueue.poll();
+		while (task != null) {
+			task.cancel(false);
+			task = mQueue.poll();
+		}
+	}
+
+	/**
+	 * Send queued messages until shut down
+	 */
+	private void work() {
+		SendTask carried = null;
+		List<SendTask> batch = new ArrayList<SendTask>();
+		while (!mShutdown) {
+			try {
+				SendTask first = carried != null ? carried : mQueue.take();
+				carried = null;
+				if (mBatchMaxMessages <= 1) {
+					first.run();
+					continue;
+				}
+
+				batch.add(first);
+				carried = fillBatch(batch);
+				sendBatch(batch);
+			} catch (InterruptedException e) {
+				// Shutting down
+				for (SendTask task : batch) {
+					task.cancel(false);
+				}
+			}
+			batch.clear();
+		}
+
+		if (carried != null) {
+			carried.cancel(false);
+		}
+	}
+
+	/**
+	 * Add queued messages with the same URL pattern to a batch until it's full or the
+	 * linger time has passed
+	 * @param batch contains the first message of the batch
+	 * @return message that was taken from the queue but has another URL pattern, null if
+	 *         none
+	 * @throws InterruptedException
+	 */
+	private SendTask fillBatch(List<SendTask> batch) throws InterruptedException {
+		SendTask first = batch.get(0);
+		int length = first.mMessage.length();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mBatchLingerMs);
+
+		while (batch.size() < mBatchMaxMessages && length < mBatchMaxLength) {
+			long waitTime = deadline - System.nanoTime();
+			SendTask next = waitTime > 0 ? mQueue.poll(waitTime, TimeUnit.NANOSECONDS) : mQueue.poll();
+			if (next == null) {
+				break;
+			}
+			if (!next.mUrlPattern.equals(first.mUrlPattern)) {
+				return next;
+			}
+			batch.add(next);
+			length += next.mMessage.length();
+		}
+		return null;
+	}
+
+	/**
+	 * Send a batch and complete its tasks with the status of the response
+	 * @param batch tasks for the messages to send
+	 */
+	private void sendBatch(List<SendTask> batch) {
+		// Skip messages that have been cancelled while waiting
+		for (int i = batch.size() - 1; i >= 0; i--) {
+			if (batch.get(i).isCancelled()) {
+				batch.remove(i);
+			}
+		}
+
+		if (batch.isEmpty()) {
+			return;
+		} else if (batch.size() == 1) {
+			batch.get(0).run();
+			return;
+		}
+
+		List<String> messages = new ArrayList<String>(batch.size());
+		for (SendTask task : batch) {
+			messages.add(task.mMessage);
+		}
+
+		try {
+			int status = mSender.sendBatch(messages, batch.get(0).mUrlPattern);
+			for (SendTask task : batch) {
+				task.complete(status);
+			}
+		} catch (IOException | RuntimeException e) {
+			for (SendTask task : batch) {
+				task.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * A queued message
+	 */
+	private class SendTask extends FutureTask<Integer> {
+		private String mMessage;
+		private String mUrlPattern;
+
+		/**
+		 * @param message the message to send
+		 * @param urlPattern where the server should look for the message
+		 */
+		SendTask(final String message, final String urlPattern) {
+			super(new Callable<Integer>() {
+				@Override
+				public Integer call() throws IOException {
+					return mSender.send(message, urlPattern);
+				}
+			});
+			mMessage = message;
+			mUrlPattern = urlPattern;
+		}
+
+		/**
+		 * Complete the task after the message has been sent in a batch
+		 * @param status HTTP status of the response
+		 */
+		void complete(int status) {
+			set(status);
+		}
+
+		/**
+		 * Complete the task with an error without sending the message
+		 * @param exception the error
+		 */
+		void fail(Exception exception) {
+			setException(exception);
+		}
+	}
+}
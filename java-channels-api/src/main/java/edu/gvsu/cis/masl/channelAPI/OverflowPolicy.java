@@ -0,0 +1,13 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+/**
+ * What to do when a bounded queue is full
+ */
+public enum OverflowPolicy {
+	/** Wait until there is room in the queue */
+	BLOCK,
+	/** Reject the new item right away */
+	FAIL_FAST,
+	/** Remove the oldest item in the queue to make room for the new one */
+	DROP_OLDEST
+}
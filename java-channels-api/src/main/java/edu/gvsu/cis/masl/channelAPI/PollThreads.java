@@ -0,0 +1,133 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories and executors for running the blocking poll loops of
+ * {@link ChannelAPI}. Example that runs every long-poll on a virtual thread when the JVM
+ * supports it:
+ *
+ * <pre>
+ * channel.setPollThreadFactory(PollThreads.virtual(&quot;channel-poll-&quot;));
+ * </pre>
+ */
+public final class PollThreads {
+	/** How long an idle thread of a {@link #fixed(ThreadFactory, int)} executor waits for a task */
+	private static final long IDLE_TIMEOUT_MS = 10000;
+	/** Thread.ofVirtual(), null if the JVM doesn't support virtual threads */
+	private static final Method mOfVirtual;
+	/** Thread.Builder.name(String, long) */
+	private static final Method mBuilderName;
+	/** Thread.Builder.factory() */
+	private static final Method mBuilderFactory;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			name = builderClass.getMethod("name", String.class, long.class);
+			factory = builderClass.getMethod("factory");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			// Throws if virtual threads are only available as a disabled preview
+			ofVirtual.invoke(null);
+		} catch (Exception e) {
+			ofVirtual = null;
+		}
+		mOfVirtual = ofVirtual;
+		mBuilderName = name;
+		mBuilderFactory = factory;
+	}
+
+	/**
+	 * Only static methods
+	 */
+	private PollThreads() {
+	}
+
+	/**
+	 * @return true if the JVM supports virtual threads
+	 */
+	public static boolean isVirtualSupported() {
+		return mOfVirtual != null;
+	}
+
+	/**
+	 * Create a factory for platform threads
+	 * @param namePrefix thread names will be this prefix followed by a counter
+	 * @param daemon true if the threads should be daemon threads
+	 * @return factory for platform threads
+	 */
+	public static ThreadFactory platform(final String namePrefix, final boolean daemon) {
+		return new ThreadFactory() {
+			private AtomicInteger mThreadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, namePrefix + mThreadCount.incrementAndGet());
+				thread.setDaemon(daemon);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Create a factory for virtual threads. Falls back to daemon platform threads if the
+	 * JVM doesn't support virtual threads.
+	 * @param namePrefix thread names will be this prefix followed by a counter
+	 * @return factory for virtual threads if supported, otherwise for platform threads
+	 */
+	public static ThreadFactory virtual(String namePrefix) {
+		if (isVirtualSupported()) {
+			try {
+				Object builder = mBuilderName.invoke(mOfVirtual.invoke(null), namePrefix, 0L);
+				return (ThreadFactory) mBuilderFactory.invoke(builder);
+			} catch (Exception e) {
+				// Fall back to platform threads
+			}
+		}
+		return platform(namePrefix, true);
+	}
+
+	/**
+	 * Create an executor that runs each task on a new thread
+	 * @param threadFactory creates the threads
+	 * @return executor that starts a new thread for each task
+	 */
+	public static Executor perTask(final ThreadFactory threadFactory) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				Thread thread = threadFactory.newThread(task);
+				if (thread == null) {
+					throw new RejectedExecutionException("Thread factory didn't create a thread");
+				}
+				thread.start();
+			}
+		};
+	}
+
+	/**
+	 * Create an executor with a fixed number of threads and an unbounded queue, for
+	 * short tasks like decoding messages. The threads stop when they have been idle for a
+	 * while and are started again when needed.
+	 * @param threadFactory creates the threads
+	 * @param threadCount max number of threads
+	 * @return executor that runs the tasks on at most threadCount threads
+	 */
+	public static ExecutorService fixed(ThreadFactory threadFactory, int threadCount) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
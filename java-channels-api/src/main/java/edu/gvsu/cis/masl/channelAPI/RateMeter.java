@@ -0,0 +1,77 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Events per second as an exponentially weighted moving average over about a minute,
+ * the same kind of average as the Unix one-minute load average. The average is updated
+ * every {@value #TICK_SECONDS} seconds, lazily when the meter is used.
+ */
+class RateMeter {
+	private static final int TICK_SECONDS = 5;
+	private static final long TICK_NANOS = TICK_SECONDS * 1000000000L;
+	private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+	private AtomicLong mUncounted = new AtomicLong();
+	private AtomicLong mLastTick = new AtomicLong(System.nanoTime());
+	private volatile double mRate = 0;
+	private volatile boolean mInitialized = false;
+
+	/**
+	 * Count events
+	 * @param count number of events
+	 */
+	void mark(long count) {
+		tickIfNeeded();
+		mUncounted.addAndGet(count);
+	}
+
+	/**
+	 * @return events per second
+	 */
+	double getRate() {
+		tickIfNeeded();
+		return mRate;
+	}
+
+	/**
+	 * Clear the average
+	 */
+	void reset() {
+		mUncounted.set(0);
+		mRate = 0;
+		mInitialized = false;
+	}
+
+	/**
+	 * Update the average for every tick that has passed since the last update
+	 */
+	private void tickIfNeeded() {
+		long lastTick = mLastTick.get();
+		long age = System.nanoTime() - lastTick;
+		if (age > TICK_NANOS) {
+			long newTick = lastTick + age - age % TICK_NANOS;
+			if (mLastTick.compareAndSet(lastTick, newTick)) {
+				tick();
+				// Nothing was counted during the remaining ticks
+				long idleTickCount = age / TICK_NANOS - 1;
+				if (idleTickCount > 0) {
+					mRate *= Math.pow(1 - ALPHA, idleTickCount);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update the average with the events counted during one tick
+	 */
+	private void tick() {
+		double tickRate = mUncounted.getAndSet(0) / (double) TICK_SECONDS;
+		if (mInitialized) {
+			mRate += ALPHA * (tickRate - mRate);
+		} else {
+			mRate = tickRate;
+			mInitialized = true;
+		}
+	}
+}
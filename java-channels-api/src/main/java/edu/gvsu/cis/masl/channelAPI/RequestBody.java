@@ -0,0 +1,191 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a request body straight to the connection instead of building it in memory
+ * first. An uncompressed body is sent in fixed-length streaming mode, since its length
+ * is known up front, and a compressed body in chunked streaming mode. Text is encoded to
+ * UTF-8 a chunk at a time.
+ */
+final class RequestBody {
+	/** Shorter bodies aren't compressed, the deflate overhead isn't worth it */
+	static final int COMPRESS_LENGTH_MIN = 1024;
+	/** Size of the chunks the body is encoded and sent in */
+	private static final int CHUNK_SIZE = 8192;
+
+	/**
+	 * Only static methods
+	 */
+	private RequestBody() {
+	}
+
+	/**
+	 * Write text as UTF-8
+	 * @param connection a POST request that hasn't been sent yet
+	 * @param text the body
+	 * @param contentType
+	 * @param compress true to compress the body with deflate if it's long enough
+	 * @return number of bytes sent, after compression
+	 * @throws IOException
+	 */
+	static long write(HttpURLConnection connection, CharSequence text, String contentType, boolean compress) throws IOException {
+		compress = compress && text.length() >= COMPRESS_LENGTH_MIN;
+		CountingOutputStream outputStream = open(connection, contentType, compress, compress ? -1 : getUtf8Length(text));
+		OutputStream bodyStream = outputStream;
+		Deflater deflater = null;
+		if (compress) {
+			deflater = new Deflater();
+			bodyStream = new DeflaterOutputStream(outputStream, deflater, CHUNK_SIZE);
+		}
+
+		try {
+			CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+			CharBuffer chars = CharBuffer.wrap(text);
+			CoderResult result;
+			do {
+				result = encoder.encode(chars, bytes, true);
+				bodyStream.write(bytes.array(), 0, bytes.position());
+				bytes.clear();
+			} while (result.isOverflow());
+			encoder.flush(bytes);
+			bodyStream.write(bytes.array(), 0, bytes.position());
+			bodyStream.close();
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		return outputStream.getCount();
+	}
+
+	/**
+	 * Write bytes
+	 * @param connection a POST request that hasn't been sent yet
+	 * @param body
+	 * @param contentType
+	 * @param compress true to compress the body with deflate if it's long enough
+	 * @return number of bytes sent, after compression
+	 * @throws IOException
+	 */
+	static long write(HttpURLConnection connection, byte[] body, String contentType, boolean compress) throws IOException {
+		compress = compress && body.length >= COMPRESS_LENGTH_MIN;
+		CountingOutputStream outputStream = open(connection, contentType, compress, compress ? -1 : body.length);
+		if (!compress) {
+			outputStream.write(body);
+			outputStream.close();
+			return outputStream.getCount();
+		}
+
+		Deflater deflater = new Deflater();
+		try {
+			DeflaterOutputStream deflaterStream = new DeflaterOutputStream(outputStream, deflater, CHUNK_SIZE);
+			deflaterStream.write(body);
+			deflaterStream.close();
+		} finally {
+			deflater.end();
+		}
+		return outputStream.getCount();
+	}
+
+	/**
+	 * Set the headers and streaming mode and open the body
+	 * @param connection a POST request that hasn't been sent yet
+	 * @param contentType
+	 * @param compress true if the body is compressed with deflate
+	 * @param length number of bytes in the body, -1 if it isn't known
+	 * @return stream to write the body to
+	 * @throws IOException
+	 */
+	private static CountingOutputStream open(HttpURLConnection connection, String contentType, boolean compress, long length)
+			throws IOException {
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", contentType);
+		if (compress) {
+			connection.setRequestProperty("Content-Encoding", "deflate");
+		}
+		if (length >= 0 && length <= Integer.MAX_VALUE) {
+			connection.setFixedLengthStreamingMode((int) length);
+		} else {
+			connection.setChunkedStreamingMode(CHUNK_SIZE);
+		}
+		return new CountingOutputStream(connection.getOutputStream());
+	}
+
+	/**
+	 * @param text
+	 * @return number of bytes in the text encoded as UTF-8, where an unpaired surrogate is
+	 *         replaced by '?'
+	 */
+	static long getUtf8Length(CharSequence text) {
+		long length = 0;
+		int textLength = text.length();
+		for (int i = 0; i < textLength; i++) {
+			char ch = text.charAt(i);
+			if (ch < 0x80) {
+				length++;
+			} else if (ch < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(ch)) {
+				if (i + 1 < textLength && Character.isLowSurrogate(text.charAt(i + 1))) {
+					length += 4;
+					i++;
+				} else {
+					length++;
+				}
+			} else if (Character.isLowSurrogate(ch)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Counts the bytes written to a stream
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long mCount = 0;
+
+		/**
+		 * @param outputStream the stream to count
+		 */
+		CountingOutputStream(OutputStream outputStream) {
+			super(outputStream);
+		}
+
+		@Override
+		public void write(int value) throws IOException {
+			out.write(value);
+			mCount++;
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			out.write(buffer, offset, length);
+			mCount += length;
+		}
+
+		/**
+		 * @return number of bytes written
+		 */
+		long getCount() {
+			return mCount;
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+/**
+ * How a message is put in the body of the request that sends it
+ */
+public enum SendFormat {
+	/** Form encoded "channelKey" and "message" parameters */
+	FORM,
+	/** The message as UTF-8 text, "channelKey" is a query parameter */
+	RAW,
+	/** Like {@link #RAW}, compressed with deflate unless the message is short */
+	DEFLATE
+}
@@ -0,0 +1,273 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.ChannelException;
+
+/**
+ * Splits a long-poll response into submissions. A submission is a line with the number
+ * of characters in it, followed by that many characters of UTF-8. The framer reads the
+ * stream into one reusable byte buffer, parses the length directly from the bytes and
+ * decodes the submission into a reusable char buffer, so reading a submission doesn't
+ * allocate anything unless it is larger than every submission before it. A submission
+ * can be read piece by piece as it arrives with {@link #read(boolean)}, without blocking
+ * for the rest of it. A blocking read that times out (see
+ * {@link java.net.URLConnection#setReadTimeout(int)}) is treated like a read that found
+ * nothing, so the stream can still be read afterwards.
+ */
+class SubmissionFramer {
+	/** Size of the byte buffer, doesn't limit the size of a submission */
+	private static final int BYTE_BUFFER_SIZE = 8192;
+	/** Initial size of the submission buffer, grows when a larger submission is read */
+	private static final int CHAR_BUFFER_SIZE_INITIAL = 4096;
+	/** Longest length prefix we accept, protects against garbage being read as a length */
+	private static final int SUBMISSION_LENGTH_MAX = 64 * 1024 * 1024;
+	/** Returned by {@link #read(boolean)} when the stream has ended between submissions */
+	static final int ENDED = -1;
+
+	private InputStream mInputStream;
+	/** Bytes that have been read but not decoded, always ready to be read from */
+	private ByteBuffer mBytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+	private CharBuffer mChars = CharBuffer.allocate(CHAR_BUFFER_SIZE_INITIAL);
+	/** Characters in the current submission, -1 while its length line is being read */
+	private int mLength = -1;
+	/** Characters of the length line read so far */
+	private int mLengthLineLength = 0;
+	/** Value of the digits of the length line read so far, -1 if there are none */
+	private int mLengthLineValue = -1;
+	/** True when the bytes left in the byte buffer can't be used until more arrive */
+	private boolean mNeedsInput = false;
+	/** Bytes read from the stream so far */
+	private long mReadCount = 0;
+	private CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	/**
+	 * @param inputStream the response to split into submissions
+	 */
+	SubmissionFramer(InputStream inputStream) {
+		mInputStream = inputStream;
+		mBytes.flip();
+	}
+
+	/**
+	 * Read the next submission into the submission buffer
+	 * @return number of characters in the submission, -1 if the stream has ended
+	 * @throws ChannelException
+	 */
+	int readSubmission() throws ChannelException {
+		do {
+			if (read(true) == ENDED) {
+				return -1;
+			}
+		} while (!isSubmissionComplete());
+		return mLength;
+	}
+
+	/**
+	 * Read and decode more of the current submission. Starts the next submission if the
+	 * current one is complete, which overwrites the submission buffer.
+	 * @param block true to wait for the server if nothing new has arrived, at most for the
+	 *        read timeout of the stream, false to only read what can be read without
+	 *        blocking
+	 * @return number of characters of the current submission that have been decoded into
+	 *         the submission buffer, or {@link #ENDED}
+	 * @throws ChannelException
+	 */
+	int read(boolean block) throws ChannelException {
+		try {
+			if (isSubmissionComplete()) {
+				mLength = -1;
+				mLengthLineLength = 0;
+				mLengthLineValue = -1;
+			}
+
+			if (mLength < 0) {
+				int length = readLength();
+				while (length < 0) {
+					int numRead = fill(block);
+					if (numRead < 0) {
+						if (mLengthLineLength == 0) {
+							return ENDED;
+						}
+						throw new ChannelException("Stream ended in the middle of a submission.");
+					} else if (numRead == 0) {
+						return 0;
+					}
+					length = readLength();
+				}
+				startSubmission(length);
+			}
+
+			int start = mChars.position();
+			while (true) {
+				CoderResult result = mDecoder.decode(mBytes, mChars, false);
+				if (result.isError()) {
+					result.throwException();
+				}
+				// Let the caller use what has been decoded before waiting for more
+				if (!mChars.hasRemaining() || mChars.position() > start) {
+					return mChars.position();
+				}
+
+				int numRead = fill(block);
+				if (numRead < 0) {
+					throw new ChannelException("Stream ended in the middle of a submission.");
+				} else if (numRead == 0) {
+					return mChars.position();
+				}
+			}
+		} catch (IOException e) {
+			throw new ChannelException(e);
+		}
+	}
+
+	/**
+	 * @return number of characters in the current submission, -1 if its length line
+	 *         hasn't arrived yet
+	 */
+	int getSubmissionLength() {
+		return mLength;
+	}
+
+	/**
+	 * @return true if the whole current submission has been decoded
+	 */
+	boolean isSubmissionComplete() {
+		return mLength >= 0 && !mChars.hasRemaining();
+	}
+
+	/**
+	 * @return the submission buffer, the last submission starts at index 0. The buffer is
+	 *         overwritten by the next submission.
+	 */
+	char[] getBuffer() {
+		return mChars.array();
+	}
+
+	/**
+	 * @return number of bytes read from the stream so far
+	 */
+	long getReadCount() {
+		return mReadCount;
+	}
+
+	/**
+	 * @return true if there is data that can be read without blocking. Data that has
+	 *         arrived on an SSL connection, and the end of the stream, are only seen by a
+	 *         blocking read.
+	 */
+	boolean isReady() {
+		try {
+			return (mBytes.hasRemaining() && !mNeedsInput) || mInputStream.available() > 0;
+		} catch (IOException e) {
+			// Let the next read report the error
+			return true;
+		}
+	}
+
+	/**
+	 * Read and discard the rest of the stream
+	 * @throws IOException
+	 */
+	void drain() throws IOException {
+		mBytes.clear();
+		while (mInputStream.read(mBytes.array(), 0, mBytes.capacity()) >= 0) {
+			// Discard
+		}
+		mBytes.limit(0);
+	}
+
+	/**
+	 * Close the stream
+	 */
+	void close() {
+		try {
+			mInputStream.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Parse the length line of the next submission from the bytes that have arrived
+	 * @return number of characters in the submission, -1 if the rest of the line hasn't
+	 *         arrived yet
+	 * @throws ChannelException if the line isn't a number
+	 */
+	private int readLength() throws ChannelException {
+		while (mBytes.hasRemaining()) {
+			byte ch = mBytes.get();
+			if (ch == '\n') {
+				if (mLengthLineValue < 0) {
+					throw new ChannelException("Submission was not in expected format.");
+				}
+				return mLengthLineValue;
+			}
+
+			mLengthLineLength++;
+			if (ch >= '0' && ch <= '9') {
+				mLengthLineValue = Math.max(mLengthLineValue, 0) * 10 + (ch - '0');
+				if (mLengthLineValue > SUBMISSION_LENGTH_MAX) {
+					throw new ChannelException("Submission was not in expected format.");
+				}
+			} else if (ch != '\r') {
+				throw new ChannelException("Submission was not in expected format.");
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Prepare the submission buffer for a new submission
+	 * @param length number of characters in the submission
+	 */
+	private void startSubmission(int length) {
+		if (mChars.capacity() < length) {
+			mChars = CharBuffer.allocate(Math.max(length, mChars.capacity() * 2));
+		}
+		mChars.clear();
+		mChars.limit(length);
+		mDecoder.reset();
+		mLength = length;
+	}
+
+	/**
+	 * Read more bytes from the stream, keeping the bytes that haven't been decoded yet.
+	 * Reads straight into the array backing the buffer to avoid a copy.
+	 * @param block true to wait for the server, false to only read what has arrived
+	 * @return number of bytes read, 0 if nothing has arrived and block is false or the
+	 *         read timed out, -1 if the stream has ended
+	 * @throws IOException
+	 */
+	private int fill(boolean block) throws IOException {
+		mBytes.compact();
+		int numRead = 0;
+		try {
+			int maxRead = mBytes.remaining();
+			if (!block) {
+				maxRead = Math.min(maxRead, mInputStream.available());
+			}
+			if (maxRead > 0) {
+				numRead = mInputStream.read(mBytes.array(), mBytes.arrayOffset() + mBytes.position(), maxRead);
+			}
+		} catch (SocketTimeoutException e) {
+			// Nothing arrived within the read timeout
+		} finally {
+			if (numRead > 0) {
+				mBytes.position(mBytes.position() + numRead);
+				mReadCount += numRead;
+			}
+			mBytes.flip();
+		}
+		mNeedsInput = numRead == 0;
+		return numRead;
+	}
+}
@@ -1,7 +1,5 @@
 package edu.gvsu.cis.masl.channelAPI;
 
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,20 +49,29 @@ class TalkMessage {
 	}
 
 	/**
-	 * Parse a stream for entries
-	 * @param reader
+	 * Parse a submission for entries
+	 * @param tokenizer tokenizer positioned at the start of the submission
 	 * @throws InvalidMessageException
 	 */
-	public void parse(BufferedReader reader) throws InvalidMessageException {
-		try {
-			if (skipWhitespace(reader) != '[') {
-				throw new InvalidMessageException("Expected initial [");
-			}
+	public void parse(TalkMessageTokenizer tokenizer) throws InvalidMessageException {
+		TreeBuilder builder = new TreeBuilder();
+		parse(tokenizer, builder);
+		mEntries = builder.getEntries();
+	}
 
-			mEntries = parseMessage(reader);
-		} catch (IOException e) {
-			throw new InvalidMessageException(e);
+	/**
+	 * Parse a submission and report its entries to a handler instead of building a
+	 * tree
+	 * @param tokenizer tokenizer positioned at the start of the submission
+	 * @param handler receives the entries
+	 * @throws InvalidMessageException
+	 */
+	public static void parse(TalkMessageTokenizer tokenizer, TalkMessageHandler handler) throws InvalidMessageException {
+		if (tokenizer.skipWhitespace() != '[') {
+			throw new InvalidMessageException("Expected initial [");
 		}
+
+		parseMessage(tokenizer, handler);
 	}
 
 	@Override
@@ -79,109 +86,107 @@ class TalkMessage {
 		return str + "]";
 	}
 
-	private static ArrayList<TalkMessage.TalkMessageEntry> parseMessage(BufferedReader reader) throws InvalidMessageException, IOException {
-		ArrayList<TalkMessage.TalkMessageEntry> entries = new ArrayList<TalkMessage.TalkMessageEntry>();
+	private static void parseMessage(TalkMessageTokenizer tokenizer, TalkMessageHandler handler) throws InvalidMessageException {
+		handler.startMessage();
 
-		int ch = skipWhitespace(reader);
+		int ch = tokenizer.skipWhitespace();
 		while (ch != ']') {
 			if (ch < 0) {
 				throw new InvalidMessageException("Unexpected end-of-message.");
 			}
 
 			if (ch == '[') {
-				ArrayList<TalkMessage.TalkMessageEntry> childEntries = parseMessage(reader);
-				entries.add(new TalkMessageEntry(MessageEntryKind.ME_TALKMESSAGE, new TalkMessage(childEntries)));
+				parseMessage(tokenizer, handler);
 			} else if (ch == '\"' || ch == '\'') {
-				String stringValue = parseStringValue(reader, (char) ch);
-				entries.add(new TalkMessageEntry(MessageEntryKind.ME_STRING, stringValue));
+				handler.stringValue(tokenizer.readString((char) ch));
 			}
 			// Blank entry
 			else if (ch == ',') {
-				entries.add(new TalkMessageEntry(MessageEntryKind.ME_EMPTY, null));
+				handler.emptyValue();
 			}
 			// Null entry
 			else if (ch == 'n') {
-				entries.add(new TalkMessageEntry(MessageEntryKind.ME_EMPTY, null));
-				ch = skipToNextEntry(reader);
+				handler.emptyValue();
+				ch = tokenizer.skipToNextEntry();
 			}
 			// Assume it's a number
 			else {
 				try {
-					long numValue = parseNumberValue(reader, (char) ch);
-					entries.add(new TalkMessageEntry(MessageEntryKind.ME_NUMBER, numValue));
+					long numValue = tokenizer.readNumber((char) ch);
+					handler.numberValue(numValue);
 				}
 				// Wasn't a number, add blank entry
 				catch (NumberFormatException e) {
-					entries.add(new TalkMessageEntry(MessageEntryKind.ME_EMPTY, null));
-					ch = skipToNextEntry(reader);
+					handler.emptyValue();
+					ch = tokenizer.skipToNextEntry();
 				}
 			}
 
 			// We expect a comma next, or the end of the message
 			if (ch != ',') {
-				ch = skipWhitespace(reader);
+				ch = tokenizer.skipWhitespace();
 			}
 
 			if (ch != ',' && ch != ']') {
 				throw new InvalidMessageException("Expected , or ], found " + ((char) ch));
 			} else if (ch == ',') {
-				ch = skipWhitespace(reader);
+				ch = tokenizer.skipWhitespace();
 			}
 		}
 
-		return entries;
+		handler.endMessage();
 	}
 
-	private static String parseStringValue(BufferedReader reader, char quote) throws IOException {
-		String str = "";
-		for (int ch = reader.read(); ch > 0 && ch != quote; ch = reader.read()) {
-			if (ch == '\\') {
-				ch = reader.read();
-				if (ch < 0) {
-					break;
-				}
-			}
-			str += (char) ch;
+	/**
+	 * Builds the tree of entries from the parsed messages
+	 */
+	private static class TreeBuilder implements TalkMessageHandler {
+		private ArrayList<ArrayList<TalkMessage.TalkMessageEntry>> mStack = new ArrayList<ArrayList<TalkMessage.TalkMessageEntry>>();
+		private ArrayList<TalkMessage.TalkMessageEntry> mEntries = null;
+
+		/**
+		 * @return entries of the outermost message
+		 */
+		ArrayList<TalkMessage.TalkMessageEntry> getEntries() {
+			return mEntries;
 		}
 
-		return str;
-	}
+		@Override
+		public void startMessage() {
+			mStack.add(new ArrayList<TalkMessage.TalkMessageEntry>());
+		}
 
-	private static long parseNumberValue(BufferedReader reader, char firstChar) throws IOException {
-		String str = "";
-		for (int ch = firstChar; ch > 0 && Character.isDigit(ch); ch = reader.read()) {
-			str += (char) ch;
-			reader.mark(1);
+		@Override
+		public void endMessage() {
+			ArrayList<TalkMessage.TalkMessageEntry> entries = mStack.remove(mStack.size() - 1);
+			if (mStack.isEmpty()) {
+				mEntries = entries;
+			} else {
+				add(new TalkMessageEntry(MessageEntryKind.ME_TALKMESSAGE, new TalkMessage(entries)));
+			}
 		}
-		reader.reset();
 
-		return Long.parseLong(str);
-	}
+		@Override
+		public void stringValue(CharSequence value) {
+			add(new TalkMessageEntry(MessageEntryKind.ME_STRING, value.toString()));
+		}
 
-	private static int skipWhitespace(BufferedReader reader) throws IOException {
-		int ch = reader.read();
-		while (ch >= 0) {
-			if (!Character.isWhitespace(ch)) {
-				return ch;
-			}
-			ch = reader.read();
+		@Override
+		public void numberValue(long value) {
+			add(new TalkMessageEntry(MessageEntryKind.ME_NUMBER, value));
 		}
-		return -1;
-	}
 
-	/**
-	 * Skip to the next entry
-	 * @param reader
-	 * @return -1 if buffer ended, ',' if another entry exist, ']' if this entry ended.
-	 * @throws IOException
-	 */
-	private static int skipToNextEntry(BufferedReader reader) throws IOException {
-		while (true) {
-			int ch = reader.read();
+		@Override
+		public void emptyValue() {
+			add(new TalkMessageEntry(MessageEntryKind.ME_EMPTY, null));
+		}
 
-			if (ch == -1 || ch == ',' || ch == ']') {
-				return ch;
-			}
+		/**
+		 * Add an entry to the message currently being parsed
+		 * @param entry
+		 */
+		private void add(TalkMessageEntry entry) {
+			mStack.get(mStack.size() - 1).add(entry);
 		}
 	}
 
@@ -0,0 +1,43 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.InvalidMessageException;
+
+/**
+ * Receives the entries of a talk message as they are parsed, without building a
+ * {@link TalkMessage} tree. The outermost message is reported as well, so every
+ * submission starts with {@link #startMessage()} and ends with {@link #endMessage()}.
+ */
+interface TalkMessageHandler {
+	/**
+	 * Called when a (recursive) talk message starts
+	 * @throws InvalidMessageException
+	 */
+	void startMessage() throws InvalidMessageException;
+
+	/**
+	 * Called when a (recursive) talk message ends
+	 * @throws InvalidMessageException
+	 */
+	void endMessage() throws InvalidMessageException;
+
+	/**
+	 * Called for string entries
+	 * @param value the string value. Only valid during the call, use toString() to keep
+	 *        it.
+	 * @throws InvalidMessageException
+	 */
+	void stringValue(CharSequence value) throws InvalidMessageException;
+
+	/**
+	 * Called for number entries
+	 * @param value the number value
+	 * @throws InvalidMessageException
+	 */
+	void numberValue(long value) throws InvalidMessageException;
+
+	/**
+	 * Called for empty (blank, null or unparsable) entries
+	 * @throws InvalidMessageException
+	 */
+	void emptyValue() throws InvalidMessageException;
+}
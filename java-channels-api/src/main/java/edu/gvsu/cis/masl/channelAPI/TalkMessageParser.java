@@ -1,9 +1,7 @@
 package edu.gvsu.cis.masl.channelAPI;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 
 import edu.gvsu.cis.masl.channelAPI.ChannelAPI.ChannelException;
@@ -15,8 +13,18 @@ import edu.gvsu.cis.masl.channelAPI.ChannelAPI.InvalidMessageException;
  * lenient.
  */
 class TalkMessageParser {
+	/** {@link #pollMessage(TalkMessageHandler, boolean)}: the stream has ended */
+	static final int MESSAGE_ENDED = -1;
+	/** {@link #pollMessage(TalkMessageHandler, boolean)}: part of a submission was read */
+	static final int MESSAGE_PARTIAL = 0;
+	/** {@link #pollMessage(TalkMessageHandler, boolean)}: a submission was completed */
+	static final int MESSAGE_COMPLETE = 1;
+
 	private HttpURLConnection mConnection = null;
-	private BufferedReader mReader;
+	private SubmissionFramer mFramer;
+	private TalkMessageTokenizer mTokenizer = new TalkMessageTokenizer();
+	private IncrementalTalkMessageParser mIncrementalParser = new IncrementalTalkMessageParser();
+	private boolean mInSubmission = false;
 
 
 	/**
@@ -25,70 +33,173 @@ class TalkMessageParser {
 	 * @throws ChannelException
 	 */
 	public TalkMessageParser(HttpURLConnection connection) throws ChannelException {
+		this(connection, ChannelMetrics.DISABLED);
+	}
+
+	/**
+	 * Parses a Google Talk Message from an HTTP connection
+	 * @param connection
+	 * @param metrics counts the received bytes, before and after decompression
+	 * @throws ChannelException
+	 */
+	TalkMessageParser(HttpURLConnection connection, ChannelMetrics metrics) throws ChannelException {
 		try {
 			mConnection = connection;
-			mReader = new BufferedReader(new InputStreamReader(mConnection.getInputStream()));
+			mFramer = new SubmissionFramer(DecodingInputStream.open(mConnection, metrics));
 		} catch (IOException e) {
 			throw new ChannelException(e);
 		}
 	}
 
 
+	/**
+	 * Parses Google Talk Messages from a stream that isn't tied to a connection, e.g. a
+	 * recorded response
+	 * @param inputStream
+	 */
+	TalkMessageParser(InputStream inputStream) {
+		mFramer = new SubmissionFramer(inputStream);
+	}
+
 	/**
 	 * Get the google talk message
 	 * @return google talk message
 	 * @throws ChannelException
 	 */
 	public TalkMessage getMessage() throws ChannelException {
-		try {
-			String submission = readSubmission();
-			if (submission == null) {
-				return null;
-			}
-
-			TalkMessage msg = new TalkMessage();
+		int length = readSubmission();
+		if (length < 0) {
+			return null;
+		}
 
-			try {
-				msg.parse(new BufferedReader(new StringReader(submission)));
-			} catch (InvalidMessageException e) {
-				throw new ChannelException(e);
-			}
+		TalkMessage msg = new TalkMessage();
 
-			return msg;
-		} catch (ChannelException e) {
-			throw e;
+		try {
+			mTokenizer.reset(mFramer.getBuffer(), 0, length);
+			msg.parse(mTokenizer);
+		} catch (InvalidMessageException e) {
+			throw new ChannelException(e);
 		}
+
+		return msg;
 	}
 
 	/**
-	 * Close the stream
+	 * Read the next submission and report its entries to a handler instead of building
+	 * a google talk message
+	 * @param handler receives the entries of the submission
+	 * @return false if the stream has ended, true if a submission was read
+	 * @throws ChannelException
 	 */
-	public void close() {
-		try {
-			mReader.close();
-		} catch (IOException e) {
+	public boolean readMessage(TalkMessageHandler handler) throws ChannelException {
+		int result = pollMessage(handler, true);
+		while (result == MESSAGE_PARTIAL) {
+			result = pollMessage(handler, true);
 		}
+		return result == MESSAGE_COMPLETE;
 	}
 
-	private String readSubmission() throws ChannelException {
+	/**
+	 * Read the part of the next submission that has arrived and report the entries in it
+	 * to a handler. The rest of the submission is reported by the following calls, so the
+	 * same handler must be used until the submission is complete. A submission that has
+	 * arrived as a whole is parsed in one go.
+	 * @param handler receives the entries of the submission
+	 * @param block true to wait for the server if nothing new has arrived, at most for the
+	 *        read timeout of the connection, false to only read what can be read without
+	 *        blocking
+	 * @return {@link #MESSAGE_COMPLETE} if the submission was completed,
+	 *         {@link #MESSAGE_PARTIAL} if more of it is needed, or {@link #MESSAGE_ENDED}
+	 *         if the server has ended the response, which is only seen when blocking
+	 * @throws ChannelException
+	 */
+	int pollMessage(TalkMessageHandler handler, boolean block) throws ChannelException {
+		int available = mFramer.read(block);
+		if (available == SubmissionFramer.ENDED) {
+			return MESSAGE_ENDED;
+		}
+		int length = mFramer.getSubmissionLength();
+		if (length < 0) {
+			return MESSAGE_PARTIAL;
+		}
+
 		try {
-			String line = mReader.readLine();
-			if (line == null) {
-				return null;
+			if (!mInSubmission) {
+				if (available == length) {
+					mTokenizer.reset(mFramer.getBuffer(), 0, length);
+					TalkMessage.parse(mTokenizer, handler);
+					return MESSAGE_COMPLETE;
+				}
+				mIncrementalParser.start(mFramer.getBuffer(), length, handler);
+				mInSubmission = true;
 			}
 
-			int numChars = Integer.parseInt(line);
-			char[] chars = new char[numChars];
-			int total = 0;
-			while (total < numChars) {
-				int numRead = mReader.read(chars, total, numChars - total);
-				total += numRead;
+			mIncrementalParser.parse(available);
+			if (available < length) {
+				return MESSAGE_PARTIAL;
 			}
-			return new String(chars);
-		} catch (IOException e) {
+			mInSubmission = false;
+			return MESSAGE_COMPLETE;
+		} catch (InvalidMessageException e) {
+			mInSubmission = false;
 			throw new ChannelException(e);
-		} catch (NumberFormatException e) {
-			throw new ChannelException("Submission was not in expected format.", e);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return true if part of a submission has been read by
+	 *         {@link #pollMessage(TalkMessageHandler, boolean)} but not the rest
+	 */
+	boolean isInSubmission() {
+		return mInSubmission;
+	}
+
+	/**
+	 * @return true if there is data that can be read without blocking
+	 */
+	public boolean isReady() {
+		return mFramer.isReady();
+	}
+
+	/**
+	 * @return number of bytes read from the response so far
+	 */
+	long getReadCount() {
+		return mFramer.getReadCount();
+	}
+
+	/**
+	 * Read the rest of the response and close the stream, so the connection can be
+	 * reused. Only use this when the server has ended (or is about to end) the response.
+	 */
+	public void release() {
+		try {
+			mFramer.drain();
+			mFramer.close();
+			if (mConnection != null) {
+				ConnectionPool.released(mConnection);
+			}
+		} catch (IOException e) {
+			close();
+			if (mConnection != null) {
+				ConnectionPool.discard(mConnection);
+			}
+		}
+	}
+
+	/**
+	 * Close the stream
+	 */
+	public void close() {
+		mFramer.close();
+	}
+
+	/**
+	 * Read the next submission into the submission buffer
+	 * @return number of characters in the submission, -1 if the stream has ended
+	 * @throws ChannelException
+	 */
+	int readSubmission() throws ChannelException {
+		return mFramer.readSubmission();
+	}
+}
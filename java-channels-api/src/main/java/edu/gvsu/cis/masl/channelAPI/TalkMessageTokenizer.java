@@ -0,0 +1,162 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.InvalidMessageException;
+
+/**
+ * Tokenizer for talk messages that works directly on a char buffer. The tokenizer and
+ * its scratch buffer are meant to be reused for every submission read from the same
+ * stream, so tokenizing doesn't allocate anything per character. Strings are returned as
+ * views that are only copied if the caller needs to keep them, and numbers are parsed
+ * in place.
+ */
+class TalkMessageTokenizer {
+	/** Initial size of the buffer used for unescaping strings */
+	private static final int SCRATCH_SIZE_INITIAL = 256;
+
+	private char[] mBuffer = null;
+	private int mPosition = 0;
+	private int mLimit = 0;
+	private char[] mScratch = new char[SCRATCH_SIZE_INITIAL];
+	private CharArraySequence mString = new CharArraySequence();
+
+	/**
+	 * Start tokenizing a new region. The buffer isn't copied, so it must not be changed
+	 * until the region has been tokenized.
+	 * @param buffer the characters to tokenize
+	 * @param offset where the region starts
+	 * @param length number of characters in the region
+	 */
+	void reset(char[] buffer, int offset, int length) {
+		mBuffer = buffer;
+		mPosition = offset;
+		mLimit = offset + length;
+	}
+
+	/**
+	 * @return index in the buffer of the next character to tokenize
+	 */
+	int getPosition() {
+		return mPosition;
+	}
+
+	/**
+	 * Skip all whitespace
+	 * @return first non-whitespace character, -1 if the end of the region was reached
+	 */
+	int skipWhitespace() {
+		while (mPosition < mLimit) {
+			char ch = mBuffer[mPosition++];
+			if (!Character.isWhitespace(ch)) {
+				return ch;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Skip to the next entry
+	 * @return -1 if buffer ended, ',' if another entry exist, ']' if this entry ended.
+	 */
+	int skipToNextEntry() {
+		while (mPosition < mLimit) {
+			char ch = mBuffer[mPosition++];
+			if (ch == ',' || ch == ']') {
+				return ch;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Read a string value. The opening quote should already have been read. A backslash
+	 * escapes the next character, which is kept as is. The string ends with the closing
+	 * quote, a '\0' character, or the end of the region.
+	 * @param quote the quote character that started the string
+	 * @return view of the string value, only valid until the next string is read
+	 */
+	CharSequence readString(char quote) {
+		// Fast path, no escaped characters -> copy directly from the buffer
+		int start = mPosition;
+		int end = start;
+		while (end < mLimit) {
+			char ch = mBuffer[end];
+			if (ch == quote || ch == '\0') {
+				mPosition = end + 1;
+				mString.set(mBuffer, start, end - start);
+				return mString;
+			} else if (ch == '\\') {
+				break;
+			}
+			end++;
+		}
+		if (end == mLimit) {
+			mPosition = mLimit;
+			mString.set(mBuffer, start, end - start);
+			return mString;
+		}
+
+		// Escaped characters -> unescape into the scratch buffer
+		int length = end - start;
+		ensureScratchCapacity(length + (mLimit - end));
+		System.arraycopy(mBuffer, start, mScratch, 0, length);
+		mPosition = end;
+		while (mPosition < mLimit) {
+			char ch = mBuffer[mPosition++];
+			if (ch == quote || ch == '\0') {
+				break;
+			} else if (ch == '\\') {
+				if (mPosition == mLimit) {
+					break;
+				}
+				ch = mBuffer[mPosition++];
+			}
+			mScratch[length++] = ch;
+		}
+
+		mString.set(mScratch, 0, length);
+		return mString;
+	}
+
+	/**
+	 * Read a number value. The first digit should already have been read. Reads all
+	 * consecutive digits even if the number doesn't fit in a long.
+	 * @param firstChar the first digit of the number
+	 * @return the number value
+	 * @throws InvalidMessageException if firstChar isn't a digit
+	 * @throws NumberFormatException if the number doesn't fit in a long
+	 */
+	long readNumber(char firstChar) throws InvalidMessageException {
+		if (!Character.isDigit(firstChar)) {
+			throw new InvalidMessageException("Expected a value, found " + firstChar);
+		}
+
+		long value = Character.digit(firstChar, 10);
+		boolean overflow = false;
+		while (mPosition < mLimit && Character.isDigit(mBuffer[mPosition])) {
+			int digit = Character.digit(mBuffer[mPosition++], 10);
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				overflow = true;
+			}
+			value = value * 10 + digit;
+		}
+
+		if (overflow) {
+			throw new NumberFormatException("Number doesn't fit in a long");
+		}
+		return value;
+	}
+
+	/**
+	 * Make sure the scratch buffer can hold the specified number of characters
+	 * @param capacity
+	 */
+	private void ensureScratchCapacity(int capacity) {
+		if (mScratch.length < capacity) {
+			int newLength = mScratch.length;
+			while (newLength < capacity) {
+				newLength *= 2;
+			}
+			mScratch = new char[newLength];
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.spiddekauga.http.HttpGetBuilder;
+
+/**
+ * Channel tokens fetched ahead of time, so creating a channel doesn't have to wait for
+ * the "/token" request. Tokens are fetched in batches from the app's "/token-batch"
+ * servlet, which returns the tokens for many channel keys in one response. A token is
+ * only handed out once, and tokens older than the max age are discarded because the
+ * server lets them expire (after two hours by default). Usage:
+ *
+ * <pre>
+ * TokenPool pool = new TokenPool(url);
+ * pool.prefetch(keys);
+ * ...
+ * ChannelAPI channel = new ChannelAPI(url, key, service, pool);
+ * </pre>
+ */
+public class TokenPool {
+	/** Default max age of a token, leaves time to open a channel before the token expires */
+	public static final long MAX_AGE_MS_DEFAULT = TimeUnit.MINUTES.toMillis(100);
+	/** Default max number of tokens fetched in one request */
+	public static final int BATCH_SIZE_DEFAULT = 100;
+	/** Separates the keys in the "c" parameter */
+	private static final char KEY_SEPARATOR = ',';
+
+	private String mBaseUrl;
+	private volatile long mMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(MAX_AGE_MS_DEFAULT);
+	private volatile int mBatchSize = BATCH_SIZE_DEFAULT;
+	/** Tokens per channel key, oldest first */
+	private Map<String, Deque<PooledToken>> mTokens = new HashMap<String, Deque<PooledToken>>();
+	private int mSize = 0;
+	private AtomicLong mHits = new AtomicLong();
+	private AtomicLong mMisses = new AtomicLong();
+	private AtomicLong mExpired = new AtomicLong();
+	private AtomicLong mRequests = new AtomicLong();
+
+	/**
+	 * @param URL - Server Location - http://localhost:8888
+	 */
+	public TokenPool(String URL) {
+		mBaseUrl = URL != null && URL.endsWith("/") ? URL.substring(0, URL.length() - 1) : URL;
+	}
+
+	/**
+	 * Set how old a token can get before it's discarded. Should be shorter than the
+	 * duration the server creates channels with, see {@link #MAX_AGE_MS_DEFAULT}.
+	 * @param maxAgeMs max age of a token in milliseconds
+	 */
+	public void setMaxAge(long maxAgeMs) {
+		if (maxAgeMs <= 0) {
+			throw new IllegalArgumentException("maxAgeMs must be positive, was " + maxAgeMs);
+		}
+		mMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+	}
+
+	/**
+	 * @param batchSize max number of tokens fetched in one request, see
+	 *        {@link #BATCH_SIZE_DEFAULT}
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1, was " + batchSize);
+		}
+		mBatchSize = batchSize;
+	}
+
+	/**
+	 * Fetch one token for every key and add them to the pool. Blocks until all tokens have
+	 * been fetched. A key that is listed n times gets n tokens, one for each channel that
+	 * will be created with it.
+	 * @param channelKeys keys of the channels that will be created, can't contain ','
+	 * @throws IOException if a batch couldn't be fetched, the batches before it are kept
+	 */
+	public void prefetch(Collection<String> channelKeys) throws IOException {
+		List<String> batch = new ArrayList<String>(Math.min(mBatchSize, channelKeys.size()));
+		for (String channelKey : channelKeys) {
+			if (channelKey.indexOf(KEY_SEPARATOR) >= 0) {
+				throw new IllegalArgumentException("Channel key can't contain '" + KEY_SEPARATOR + "': " + channelKey);
+			}
+			batch.add(channelKey);
+			if (batch.size() == mBatchSize) {
+				add(fetch(batch));
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			add(fetch(batch));
+		}
+	}
+
+	/**
+	 * Fetch tokens for a key and add them to the pool
+	 * @param channelKey key of the channels that will be created
+	 * @param count number of tokens to fetch
+	 * @throws IOException if a batch couldn't be fetched, the batches before it are kept
+	 */
+	public void prefetch(String channelKey, int count) throws IOException {
+		prefetch(Collections.nCopies(count, channelKey));
+	}
+
+	/**
+	 * Take a token for a key from the pool, or fetch one if there is none
+	 * @param channelKey key of the channel to create
+	 * @return the token, it's removed from the pool
+	 * @throws IOException if the pool was empty and the token couldn't be fetched
+	 */
+	public String take(String channelKey) throws IOException {
+		String token = poll(channelKey);
+		if (token != null) {
+			return token;
+		}
+
+		mMisses.incrementAndGet();
+		List<PooledToken> fetched = fetch(Collections.singletonList(channelKey));
+		if (fetched.isEmpty()) {
+			throw new IOException("No token for " + channelKey + " in the response");
+		}
+		return fetched.get(0).mToken;
+	}
+
+	/**
+	 * Take a token for a key from the pool, without fetching one
+	 * @param channelKey key of the channel to create
+	 * @return the token, it's removed from the pool. Null if there is none.
+	 */
+	public String poll(String channelKey) {
+		long now = System.nanoTime();
+		synchronized (mTokens) {
+			Deque<PooledToken> tokens = mTokens.get(channelKey);
+			if (tokens == null) {
+				return null;
+			}
+
+			removeExpired(tokens, now);
+			PooledToken token = tokens.pollFirst();
+			if (token != null) {
+				mSize--;
+			}
+			if (tokens.isEmpty()) {
+				mTokens.remove(channelKey);
+			}
+			if (token == null) {
+				return null;
+			}
+			mHits.incrementAndGet();
+			return token.mToken;
+		}
+	}
+
+	/**
+	 * Discard all tokens that are older than the max age. Expired tokens are also
+	 * discarded when a key is taken, this only frees the memory of unused keys.
+	 */
+	public void removeExpired() {
+		long now = System.nanoTime();
+		synchronized (mTokens) {
+			Iterator<Deque<PooledToken>> iterator = mTokens.values().iterator();
+			while (iterator.hasNext()) {
+				Deque<PooledToken> tokens = iterator.next();
+				removeExpired(tokens, now);
+				if (tokens.isEmpty()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Discard all tokens
+	 */
+	public void clear() {
+		synchronized (mTokens) {
+			mTokens.clear();
+			mSize = 0;
+		}
+	}
+
+	/**
+	 * @return number of tokens in the pool, including expired tokens that haven't been
+	 *         discarded yet
+	 */
+	public int size() {
+		synchronized (mTokens) {
+			return mSize;
+		}
+	}
+
+	/**
+	 * @return number of tokens taken from the pool
+	 */
+	public long getHitCount() {
+		return mHits.get();
+	}
+
+	/**
+	 * @return number of tokens that had to be fetched by {@link #take(String)}
+	 */
+	public long getMissCount() {
+		return mMisses.get();
+	}
+
+	/**
+	 * @return number of tokens discarded because they were too old
+	 */
+	public long getExpiredCount() {
+		return mExpired.get();
+	}
+
+	/**
+	 * @return number of requests sent to the server
+	 */
+	public long getRequestCount() {
+		return mRequests.get();
+	}
+
+	/**
+	 * Discard the expired tokens of a key. Call with the lock held.
+	 * @param tokens tokens of one key, oldest first
+	 * @param now current System.nanoTime()
+	 */
+	private void removeExpired(Deque<PooledToken> tokens, long now) {
+		while (!tokens.isEmpty() && now - tokens.peekFirst().mFetchTime > mMaxAgeNanos) {
+			tokens.pollFirst();
+			mSize--;
+			mExpired.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Add fetched tokens to the pool
+	 * @param fetched
+	 */
+	private void add(List<PooledToken> fetched) {
+		synchronized (mTokens) {
+			for (PooledToken token : fetched) {
+				Deque<PooledToken> tokens = mTokens.get(token.mChannelKey);
+				if (tokens == null) {
+					tokens = new ArrayDeque<PooledToken>();
+					mTokens.put(token.mChannelKey, tokens);
+				}
+				tokens.addLast(token);
+				mSize++;
+			}
+		}
+	}
+
+	/**
+	 * Fetch one token for each key with one request
+	 * @param channelKeys
+	 * @return the tokens
+	 * @throws IOException
+	 */
+	private List<PooledToken> fetch(List<String> channelKeys) throws IOException {
+		StringBuilder joined = new StringBuilder(channelKeys.size() * 16);
+		for (String channelKey : channelKeys) {
+			if (joined.length() > 0) {
+				joined.append(KEY_SEPARATOR);
+			}
+			joined.append(channelKey);
+		}
+
+		// The age counts from before the request, the server may have created it any time
+		// after that
+		long fetchTime = System.nanoTime();
+		HttpGetBuilder builder = new HttpGetBuilder(mBaseUrl + "/token-batch");
+		builder.addParameter("c", joined.toString());
+		HttpURLConnection connection = ConnectionPool.track(builder.build());
+		mRequests.incrementAndGet();
+		String response = ConnectionPool.readResponse(connection);
+
+		try {
+			Object array = JsonCodec.decodeObject(response).get("tokens");
+			if (!(array instanceof List)) {
+				throw new IOException("Expected a tokens array");
+			}
+			List<PooledToken> tokens = new ArrayList<PooledToken>(((List<?>) array).size());
+			for (Object entry : (List<?>) array) {
+				if (!(entry instanceof Map)) {
+					throw new IOException("Expected a token object");
+				}
+				@SuppressWarnings("unchecked")
+				Map<String, Object> token = (Map<String, Object>) entry;
+				tokens.add(new PooledToken(JsonCodec.getString(token, "channelKey"), JsonCodec.getString(token, "token"), fetchTime));
+			}
+			return tokens;
+		} catch (IOException e) {
+			throw new IOException("Invalid token batch response", e);
+		}
+	}
+
+	/**
+	 * A token with the time it was fetched
+	 */
+	private static class PooledToken {
+		final String mChannelKey;
+		final String mToken;
+		/** System.nanoTime() before the token was requested */
+		final long mFetchTime;
+
+		/**
+		 * @param channelKey
+		 * @param token
+		 * @param fetchTime System.nanoTime() before the token was requested
+		 */
+		PooledToken(String channelKey, String token, long fetchTime) {
+			mChannelKey = channelKey;
+			mToken = token;
+			mFetchTime = fetchTime;
+		}
+	}
+}
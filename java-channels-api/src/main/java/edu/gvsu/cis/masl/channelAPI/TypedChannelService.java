@@ -0,0 +1,41 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+/**
+ * Channel listener that receives decoded messages instead of text. Register it with a
+ * {@link DecodingChannelService}, which decodes the messages on a worker pool. The
+ * callbacks are called in the order the channel received them and never at the same
+ * time, from a delivery thread of the DecodingChannelService that isn't always the same
+ * one.
+ * @param <T> type of the decoded messages
+ */
+public interface TypedChannelService<T> {
+	/**
+	 * Called when the socket is ready to receive messages
+	 */
+	void onOpen();
+
+	/**
+	 * Called when the socket receives a message
+	 * @param message the decoded message
+	 */
+	void onMessage(T message);
+
+	/**
+	 * Called instead of {@link #onMessage(Object)} when a message couldn't be decoded
+	 * @param message the message text
+	 * @param cause what the codec threw
+	 */
+	void onInvalidMessage(String message, Exception cause);
+
+	/**
+	 * Called when the socket is closed
+	 */
+	void onClose();
+
+	/**
+	 * Called when the channel reports an error
+	 * @param errorCode
+	 * @param description
+	 */
+	void onError(Integer errorCode, String description);
+}
@@ -0,0 +1,48 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spiddekauga.http.HttpGetBuilder;
+
+/**
+ * Building the "/bind" URL, which is done for every long-poll request
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindUrlBenchmark {
+	private ChannelAPI mChannel = new ChannelAPI();
+
+	/**
+	 * Give the channel the token and ids it would have after the handshake
+	 */
+	@Setup
+	public void setup() {
+		mChannel.joinChannel("https://example.appspot.com", "channel-2107741623-1438102395-benchmark", null);
+		mChannel.setSession("8E2A61F4C0D93B75", "6A1F3B9C2D8E4F70", "F0E1D2C3B4A59687", 42);
+	}
+
+	/**
+	 * @return the builder with all parameters added
+	 * @throws IOException
+	 */
+	@Benchmark
+	public HttpGetBuilder getBindUrl() throws IOException {
+		return mChannel.getBindUrl(true);
+	}
+}
@@ -0,0 +1,131 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.InvalidMessageException;
+
+/**
+ * Delivering a message to the listener: parsing a production submission and passing it
+ * through {@link ChannelAPI#handleMessage(BindMessageExtractor)}, to a plain listener
+ * and to a {@link ChannelViewService}, and chomping a development poll response
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryBenchmark {
+	@Param(Payloads.ALL)
+	String payload;
+
+	private char[] mBody;
+	private String mDevelopmentResponse;
+	private TalkMessageTokenizer mTokenizer = new TalkMessageTokenizer();
+	private BindMessageExtractor mExtractor = new BindMessageExtractor();
+	private ChannelAPI mChannel = new ChannelAPI();
+	private ChannelAPI mViewChannel = new ChannelAPI();
+
+	/**
+	 * Load the payload and let the channel deliver messages to the blackhole
+	 * @param blackhole
+	 * @throws InvalidMessageException
+	 */
+	@Setup
+	public void setup(final Blackhole blackhole) throws InvalidMessageException {
+		mBody = Payloads.getBody(payload);
+		mChannel.setChannelListener(new ChannelService() {
+			@Override
+			public void onOpen() {
+			}
+
+			@Override
+			public void onMessage(String message) {
+				blackhole.consume(message);
+			}
+
+			@Override
+			public void onClose() {
+			}
+
+			@Override
+			public void onError(Integer errorCode, String description) {
+			}
+		});
+
+		mViewChannel.setChannelListener(new ChannelViewService() {
+			@Override
+			public void onOpen() {
+			}
+
+			@Override
+			public void onMessage(String message) {
+			}
+
+			@Override
+			public void onMessageView(CharSequence message) {
+				blackhole.consume(message.length());
+			}
+
+			@Override
+			public void onClose() {
+			}
+
+			@Override
+			public void onError(Integer errorCode, String description) {
+			}
+		});
+
+		// The development server responds with the message followed by a newline
+		mExtractor.reset(null);
+		mTokenizer.reset(mBody, 0, mBody.length);
+		TalkMessage.parse(mTokenizer, mExtractor);
+		List<String> messages = mExtractor.getPayloads();
+		mDevelopmentResponse = (messages.isEmpty() ? "" : messages.get(0)) + "\r\n";
+	}
+
+	/**
+	 * @throws InvalidMessageException
+	 */
+	@Benchmark
+	public void handleMessage() throws InvalidMessageException {
+		mExtractor.reset(null);
+		mTokenizer.reset(mBody, 0, mBody.length);
+		TalkMessage.parse(mTokenizer, mExtractor);
+		mChannel.handleMessage(mExtractor);
+	}
+
+	/**
+	 * Like {@link #handleMessage()}, with the payloads kept in the extractor's buffer
+	 * @throws InvalidMessageException
+	 */
+	@Benchmark
+	public void handleMessageView() throws InvalidMessageException {
+		mExtractor.reset(null, true);
+		mTokenizer.reset(mBody, 0, mBody.length);
+		TalkMessage.parse(mTokenizer, mExtractor);
+		mViewChannel.handleMessage(mExtractor);
+	}
+
+	/**
+	 * @return the chomped response
+	 */
+	@Benchmark
+	public String chomp() {
+		return ChannelAPI.chomp(mDevelopmentResponse);
+	}
+}
@@ -0,0 +1,65 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.InvalidMessageException;
+
+/**
+ * Decoding the messages of a submission with {@link JsonCodec}, as
+ * {@link DecodingChannelService} does for every message on a worker thread. The time
+ * per operation is for all messages in the submission.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+	@Param(Payloads.ALL)
+	String payload;
+
+	private List<String> mMessages;
+
+	/**
+	 * Extract the messages from the payload
+	 * @throws InvalidMessageException
+	 */
+	@Setup
+	public void setup() throws InvalidMessageException {
+		char[] body = Payloads.getBody(payload);
+		TalkMessageTokenizer tokenizer = new TalkMessageTokenizer();
+		BindMessageExtractor extractor = new BindMessageExtractor();
+		extractor.reset(null);
+		tokenizer.reset(body, 0, body.length);
+		TalkMessage.parse(tokenizer, extractor);
+		mMessages = new ArrayList<String>(extractor.getPayloads());
+	}
+
+	/**
+	 * @param blackhole
+	 * @throws IOException
+	 */
+	@Benchmark
+	public void decode(Blackhole blackhole) throws IOException {
+		for (String message : mMessages) {
+			blackhole.consume(JsonCodec.INSTANCE.decode(message));
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recorded talk submissions used by the benchmarks. Each payload is a single
+ * length-prefixed submission, as sent by the server on a long-poll request:
+ * <ul>
+ * <li>noop - keep-alive sent while the channel is idle</li>
+ * <li>small - one short chat message</li>
+ * <li>large - about 18 KB of chat messages in one submission</li>
+ * <li>nested - session setup and a message with deeply nested metadata</li>
+ * <li>escaped - a message with many escaped quotes, backslashes and non-ASCII text</li>
+ * </ul>
+ */
+class Payloads {
+	/** Names of all recorded payloads, for use in {@code @Param} */
+	static final String ALL = "noop,small,large,nested,escaped";
+
+	/**
+	 * Only static methods
+	 */
+	private Payloads() {
+	}
+
+	/**
+	 * @param name name of the payload
+	 * @return the submission including its length line
+	 */
+	static String getSubmission(String name) {
+		InputStream inputStream = Payloads.class.getResourceAsStream("/payloads/" + name + ".txt");
+		if (inputStream == null) {
+			throw new IllegalArgumentException("No payload named " + name);
+		}
+
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int numRead = inputStream.read(buffer);
+			while (numRead >= 0) {
+				content.write(buffer, 0, numRead);
+				numRead = inputStream.read(buffer);
+			}
+			inputStream.close();
+			return new String(content.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException("Couldn't read payload " + name, e);
+		}
+	}
+
+	/**
+	 * @param name name of the payload
+	 * @return the submission without its length line
+	 */
+	static char[] getBody(String name) {
+		String submission = getSubmission(name);
+		return submission.substring(submission.indexOf('\n') + 1).toCharArray();
+	}
+
+	/**
+	 * @param name name of the payload
+	 * @param count number of times to repeat the submission
+	 * @return the submission repeated, like a long-poll response with several submissions
+	 */
+	static byte[] getStream(String name, int count) {
+		String submission = getSubmission(name);
+		StringBuilder stream = new StringBuilder(submission.length() * count);
+		for (int i = 0; i < count; i++) {
+			stream.append(submission);
+		}
+		return stream.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,69 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.InvalidMessageException;
+
+/**
+ * Parsing a submission that is already in memory, into a {@link TalkMessage} tree and
+ * with the {@link BindMessageExtractor} used by the long-poll
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TalkMessageBenchmark {
+	@Param(Payloads.ALL)
+	String payload;
+
+	private char[] mBody;
+	private TalkMessageTokenizer mTokenizer = new TalkMessageTokenizer();
+	private BindMessageExtractor mExtractor = new BindMessageExtractor();
+
+	/**
+	 * Load the payload
+	 */
+	@Setup
+	public void setup() {
+		mBody = Payloads.getBody(payload);
+	}
+
+	/**
+	 * @return entries of the parsed tree
+	 * @throws InvalidMessageException
+	 */
+	@Benchmark
+	public List<?> parseTree() throws InvalidMessageException {
+		TalkMessage message = new TalkMessage();
+		mTokenizer.reset(mBody, 0, mBody.length);
+		message.parse(mTokenizer);
+		return message.getEntries();
+	}
+
+	/**
+	 * @return the extracted payloads
+	 * @throws InvalidMessageException
+	 */
+	@Benchmark
+	public List<String> extract() throws InvalidMessageException {
+		mExtractor.reset(null);
+		mTokenizer.reset(mBody, 0, mBody.length);
+		TalkMessage.parse(mTokenizer, mExtractor);
+		return mExtractor.getPayloads();
+	}
+}
@@ -0,0 +1,81 @@
+package edu.gvsu.cis.masl.channelAPI;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI.ChannelException;
+
+/**
+ * Reading submissions from a long-poll response. Each invocation reads a response
+ * containing {@value #SUBMISSION_COUNT} copies of the payload, so the time per
+ * operation is the time per submission including the share of creating the parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TalkMessageParserBenchmark {
+	private static final int SUBMISSION_COUNT = 16;
+
+	@Param(Payloads.ALL)
+	String payload;
+
+	private byte[] mStream;
+	private BindMessageExtractor mExtractor = new BindMessageExtractor();
+
+	/**
+	 * Load the payload
+	 */
+	@Setup
+	public void setup() {
+		mStream = Payloads.getStream(payload, SUBMISSION_COUNT);
+	}
+
+	/**
+	 * Only split the response into submissions
+	 * @param blackhole
+	 * @throws ChannelException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(SUBMISSION_COUNT)
+	public void readSubmission(Blackhole blackhole) throws ChannelException {
+		TalkMessageParser parser = new TalkMessageParser(new ByteArrayInputStream(mStream));
+		int length = parser.readSubmission();
+		while (length >= 0) {
+			blackhole.consume(length);
+			length = parser.readSubmission();
+		}
+	}
+
+	/**
+	 * Split the response into submissions and extract their payloads, like the long-poll
+	 * @param blackhole
+	 * @throws ChannelException
+	 */
+	@Benchmark
+	@OperationsPerInvocation(SUBMISSION_COUNT)
+	public void readMessage(Blackhole blackhole) throws ChannelException {
+		TalkMessageParser parser = new TalkMessageParser(new ByteArrayInputStream(mStream));
+		mExtractor.reset(null);
+		while (parser.readMessage(mExtractor)) {
+			blackhole.consume(mExtractor.getPayloads());
+			mExtractor.reset(null);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package edu.gvsu.cis.masl.channel;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.channel.ChannelMessage;
+import com.google.appengine.api.channel.ChannelService;
+import com.google.appengine.api.channel.ChannelServiceFactory;
+
+/**
+ * Batch-aware variant of ChatServlet. Accepts the batches sent by ChannelAPI when
+ * outbound batching is enabled: "channelKey", "count" and "message0" to
+ * "message&lt;count-1&gt;". Requests without "count" are handled just like ChatServlet.
+ * A batch holds at most {@value #MESSAGES_MAX} messages.
+ */
+@SuppressWarnings("serial")
+public class ChatBatchServlet extends HttpServlet {
+  /** Max number of messages in one batch */
+  private static final int MESSAGES_MAX = 500;
+
+  private static ChannelService channelService = ChannelServiceFactory.getChannelService();
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    String channelKey = req.getParameter("channelKey");
+    String count = req.getParameter("count");
+
+    // Single message
+    if (count == null) {
+      channelService.sendMessage(new ChannelMessage(channelKey, req.getParameter("message")));
+      return;
+    }
+
+    int messageCount;
+    try {
+      messageCount = Integer.parseInt(count);
+    } catch (NumberFormatException e) {
+      messageCount = -1;
+    }
+    if (messageCount < 0) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid count: " + count);
+      return;
+    }
+    if (messageCount > MESSAGES_MAX) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "At most " + MESSAGES_MAX + " messages per batch");
+      return;
+    }
+
+    // Check the whole batch before sending anything
+    String[] messages = new String[messageCount];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = req.getParameter("message" + i);
+      if (messages[i] == null) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing message" + i);
+        return;
+      }
+    }
+
+    // Send the messages in order, any channel with this key will receive them
+    for (String message : messages) {
+      channelService.sendMessage(new ChannelMessage(channelKey, message));
+    }
+  }
+}
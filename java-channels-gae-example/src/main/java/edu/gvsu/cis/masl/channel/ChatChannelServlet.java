@@ -4,30 +4,61 @@ import com.google.appengine.api.channel.ChannelService;
 import com.google.appengine.api.channel.ChannelServiceFactory;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
 import javax.servlet.http.*;
 
 
 @SuppressWarnings("serial")
 public class ChatChannelServlet extends HttpServlet {
+	/** Channels expire after two hours, leave the client time to connect */
+	private static final long TOKEN_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(100);
+	/** Max number of channel keys whose token is kept */
+	private static final int TOKEN_CACHE_SIZE = 10000;
+	private static final String RESPONSE_START = "{\"channelKey\":\"";
+	private static final String RESPONSE_MIDDLE = "\",\"token\":\"";
+	private static final String RESPONSE_END = "\"}";
+
 	private static ChannelService channelService = ChannelServiceFactory.getChannelService();
+	private static TokenCache tokenCache = new TokenCache(TOKEN_CACHE_SIZE, TOKEN_MAX_AGE_MS);
 
 	@Override
 	public void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws IOException {
 		String channelKey = req.getParameter("c");
 
-		// Create a Channel using the 'channelKey' we received from the client
-		String token = channelService.createChannel(channelKey);
+		// No key, report how well the token cache works
+		if (channelKey == null) {
+			resp.setContentType("application/json");
+			resp.getWriter().write("{\"hits\":" + tokenCache.getHitCount() + ",\"misses\":" + tokenCache.getMissCount()
+					+ ",\"evictions\":" + tokenCache.getEvictionCount() + ",\"size\":" + tokenCache.size() + "}");
+			return;
+		}
+
+		// Reuse the token of a client that asks again, e.g. after a restart, while
+		// it's valid. Otherwise create a Channel using the 'channelKey' we received
+		// from the client
+		String token = tokenCache.get(channelKey);
+		if (token == null) {
+			token = channelService.createChannel(channelKey);
+			tokenCache.put(channelKey, token);
+		}
 
 		// Send the client the 'token' + the 'channelKey' this way the client
-		// can start using the new channel
+		// can start using the new channel. The length is known up front, so the
+		// pieces are written straight to the response.
+		String escapedKey = Json.escape(channelKey);
+		String escapedToken = Json.escape(token);
 		resp.setContentType("text/html");
-		StringBuffer sb = new StringBuffer();
-		sb.append("{\"channelKey\":\"");
-		sb.append(channelKey);
-		sb.append("\",\"token\":\"");
-		sb.append(token);
-		sb.append("\"}");
-		resp.getWriter().write(sb.toString());
+		resp.setCharacterEncoding("UTF-8");
+		resp.setContentLength(RESPONSE_START.length() + Json.utf8Length(escapedKey) + RESPONSE_MIDDLE.length()
+				+ Json.utf8Length(escapedToken) + RESPONSE_END.length());
+		Writer writer = resp.getWriter();
+		writer.write(RESPONSE_START);
+		writer.write(escapedKey);
+		writer.write(RESPONSE_MIDDLE);
+		writer.write(escapedToken);
+		writer.write(RESPONSE_END);
 	}
 }
\ No newline at end of file
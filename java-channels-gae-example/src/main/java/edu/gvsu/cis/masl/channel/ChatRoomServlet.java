@@ -0,0 +1,234 @@
+package edu.gvsu.cis.masl.channel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.channel.ChannelMessage;
+import com.google.appengine.api.channel.ChannelService;
+import com.google.appengine.api.channel.ChannelServiceFactory;
+
+/**
+ * Rooms of channel keys, so one POST can send a message to every member of a room.
+ * POST with "room" and "action":
+ * <ul>
+ * <li>join - add "channelKey" to the room</li>
+ * <li>leave - remove "channelKey" from the room</li>
+ * <li>send - send "message" to every member. The members are split into batches that
+ * are sent in parallel on request threads, and the response reports how long it took:
+ * {"members":...,"batches":...,"failed":...,"millis":...}</li>
+ * </ul>
+ * GET with "room" returns the number of members and the fan-out latency of all rooms
+ * since the instance started.
+ * <p>
+ * A room is removed when its last member leaves. A join that would create more than
+ * {@value #ROOMS_MAX} rooms is rejected with 503.
+ * <p>
+ * The rooms are kept in the memory of the instance, so this example expects the app to
+ * run on one instance, like the development server does.
+ */
+@SuppressWarnings("serial")
+public class ChatRoomServlet extends HttpServlet {
+  /** Channel keys sent to by one thread before it takes the next batch */
+  private static final int BATCH_SIZE = 50;
+  /** Max number of threads sending at the same time, including the request thread */
+  private static final int THREADS_MAX = 10;
+  /** Max number of rooms, so joins can't fill the memory of the instance */
+  static final int ROOMS_MAX = 1000;
+
+  private static final Logger log = Logger.getLogger(ChatRoomServlet.class.getName());
+  private static ChannelService channelService = ChannelServiceFactory.getChannelService();
+  /** Channel keys of the members of each room, only changed while holding its lock */
+  private static ConcurrentMap<String, Set<String>> rooms = new ConcurrentHashMap<String, Set<String>>();
+  private static AtomicLong fanOutCount = new AtomicLong();
+  private static AtomicLong fanOutTotalNanos = new AtomicLong();
+  private static AtomicLong fanOutMaxNanos = new AtomicLong();
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    String room = req.getParameter("room");
+    String action = req.getParameter("action");
+    if (room == null || action == null) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing room or action");
+      return;
+    }
+
+    if ("send".equals(action)) {
+      String message = req.getParameter("message");
+      if (message == null) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing message");
+        return;
+      }
+      send(room, message, resp);
+      return;
+    }
+
+    String channelKey = req.getParameter("channelKey");
+    if (channelKey == null) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing channelKey");
+      return;
+    }
+    if ("join".equals(action)) {
+      if (!join(room, channelKey)) {
+        resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "At most " + ROOMS_MAX + " rooms");
+      }
+    } else if ("leave".equals(action)) {
+      leave(room, channelKey);
+    } else {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown action: " + action);
+    }
+  }
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    Set<String> members = rooms.get(req.getParameter("room"));
+    long count = fanOutCount.get();
+
+    resp.setContentType("application/json");
+    resp.getWriter().write(
+        "{\"members\":" + (members != null ? members.size() : 0) + ",\"fanOuts\":" + count + ",\"meanMillis\":"
+            + (count > 0 ? fanOutTotalNanos.get() / count / 1e6 : 0) + ",\"maxMillis\":" + fanOutMaxNanos.get() / 1e6 + "}");
+  }
+
+  /**
+   * Add a member to a room, the room is created if it doesn't exist
+   * @param room
+   * @param channelKey
+   * @return false if the room doesn't exist and there are already {@link #ROOMS_MAX} rooms
+   */
+  private static boolean join(String room, String channelKey) {
+    synchronized (rooms) {
+      Set<String> members = rooms.get(room);
+      if (members == null) {
+        if (rooms.size() >= ROOMS_MAX) {
+          return false;
+        }
+        members = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        rooms.put(room, members);
+      }
+      members.add(channelKey);
+      return true;
+    }
+  }
+
+  /**
+   * Remove a member from a room, and the room once it's empty
+   * @param room
+   * @param channelKey
+   */
+  private static void leave(String room, String channelKey) {
+    synchronized (rooms) {
+      Set<String> members = rooms.get(room);
+      if (members != null && members.remove(channelKey) && members.isEmpty()) {
+        rooms.remove(room);
+      }
+    }
+  }
+
+  /**
+   * @return number of rooms with at least one member
+   */
+  static int getRoomCount() {
+    return rooms.size();
+  }
+
+  /**
+   * Send a message to every member of a room and report the latency
+   * @param room
+   * @param message
+   * @param resp
+   * @throws IOException
+   */
+  private static void send(String room, final String message, HttpServletResponse resp) throws IOException {
+    Set<String> members = rooms.get(room);
+    final List<String> channelKeys = members != null ? new ArrayList<String>(members) : new ArrayList<String>();
+    final int batchCount = (channelKeys.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+    final AtomicInteger nextBatch = new AtomicInteger();
+    final AtomicInteger failedCount = new AtomicInteger();
+
+    // Every thread takes the next batch when it's done, so a slow batch doesn't hold up
+    // the others
+    Runnable sender = new Runnable() {
+      @Override
+      public void run() {
+        int batch = nextBatch.getAndIncrement();
+        while (batch < batchCount) {
+          int end = Math.min(channelKeys.size(), (batch + 1) * BATCH_SIZE);
+          for (int i = batch * BATCH_SIZE; i < end; i++) {
+            try {
+              channelService.sendMessage(new ChannelMessage(channelKeys.get(i), message));
+            } catch (RuntimeException e) {
+              failedCount.incrementAndGet();
+            }
+          }
+          batch = nextBatch.getAndIncrement();
+        }
+      }
+    };
+
+    long startTime = System.nanoTime();
+    // The request thread sends too, so small rooms don't start any threads. Without a
+    // request thread factory (e.g. old local test environments) it sends every batch.
+    ThreadFactory threadFactory = ThreadManager.currentRequestThreadFactory();
+    int threadCount = threadFactory != null ? Math.min(THREADS_MAX, batchCount) : 1;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 1; i < threadCount; i++) {
+      Thread thread = threadFactory.newThread(sender);
+      thread.start();
+      threads.add(thread);
+    }
+    sender.run();
+    // Request threads can't outlive the request, so they're waited for even when
+    // interrupted. They stop after the batch they're sending.
+    boolean interrupted = false;
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+          nextBatch.set(batchCount);
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted while sending");
+      return;
+    }
+    long latency = System.nanoTime() - startTime;
+    recordFanOut(latency);
+
+    log.info("Sent to " + channelKeys.size() + " members of " + room + " in " + latency / 1000000 + " ms with " + (threads.size() + 1)
+        + " threads, " + failedCount.get() + " failed");
+    resp.setContentType("application/json");
+    resp.getWriter().write(
+        "{\"members\":" + channelKeys.size() + ",\"batches\":" + batchCount + ",\"failed\":" + failedCount.get() + ",\"millis\":"
+            + latency / 1e6 + "}");
+  }
+
+  /**
+   * @param latencyNanos time it took to send a message to a room
+   */
+  private static void recordFanOut(long latencyNanos) {
+    fanOutCount.incrementAndGet();
+    fanOutTotalNanos.addAndGet(latencyNanos);
+    long max = fanOutMaxNanos.get();
+    while (latencyNanos > max && !fanOutMaxNanos.compareAndSet(max, latencyNanos)) {
+      max = fanOutMaxNanos.get();
+    }
+  }
+}
@@ -1,6 +1,13 @@
 package edu.gvsu.cis.masl.channel;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -10,16 +17,103 @@ import com.google.appengine.api.channel.ChannelMessage;
 import com.google.appengine.api.channel.ChannelService;
 import com.google.appengine.api.channel.ChannelServiceFactory;
 
+/**
+ * Sends a message to every channel with a key. The message is either the form parameter
+ * "message", or the whole request body when it isn't form encoded (see
+ * ChannelAPI.setSendFormat), which may be compressed with deflate or gzip. The key is
+ * the parameter "channelKey" in both cases.
+ */
 @SuppressWarnings("serial")
 public class ChatServlet extends HttpServlet {
+  /** Longest message body accepted, after decompression */
+  private static final int BODY_LENGTH_MAX = 64 * 1024;
+
+  private static ChannelService channelService = ChannelServiceFactory.getChannelService();
+
   @Override
   public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     String channelKey = req.getParameter("channelKey");
-    String message = req.getParameter("message");
-    
+    String message;
+    if (isForm(req)) {
+      message = req.getParameter("message");
+    } else {
+      message = readBody(req, resp);
+      if (message == null) {
+        return;
+      }
+    }
+
     //Send a message based on the 'channelKey' any channel with this key will receive the message
-    ChannelService channelService = ChannelServiceFactory.getChannelService();
-    
 	channelService.sendMessage(new ChannelMessage(channelKey, message));
   }
+
+  /**
+   * @param req
+   * @return true if the message is a form parameter
+   */
+  private static boolean isForm(HttpServletRequest req) {
+    String contentType = req.getContentType();
+    return contentType == null || contentType.startsWith("application/x-www-form-urlencoded");
+  }
+
+  /**
+   * Read the request body as text, decompressing it while it's read
+   * @param req
+   * @param resp receives the error if the body can't be read
+   * @return the body, null if an error was sent
+   * @throws IOException
+   */
+  private static String readBody(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    InputStream inputStream = req.getInputStream();
+    String encoding = req.getHeader("Content-Encoding");
+    if (encoding != null) {
+      encoding = encoding.trim();
+      if (encoding.equalsIgnoreCase("deflate")) {
+        inputStream = new InflaterInputStream(inputStream);
+      } else if (encoding.equalsIgnoreCase("gzip")) {
+        try {
+          inputStream = new GZIPInputStream(inputStream);
+        } catch (ZipException e) {
+          resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid gzip body");
+          return null;
+        }
+      } else if (!encoding.isEmpty() && !encoding.equalsIgnoreCase("identity")) {
+        resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported Content-Encoding: " + encoding);
+        return null;
+      }
+    }
+
+    // Size the buffer from the length when it's known and the body isn't compressed
+    int contentLength = req.getContentLength();
+    ByteArrayOutputStream body = new ByteArrayOutputStream(encoding == null && contentLength > 0
+        ? Math.min(contentLength, BODY_LENGTH_MAX) : 4096);
+    byte[] buffer = new byte[4096];
+    try {
+      int numRead = inputStream.read(buffer);
+      while (numRead >= 0) {
+        body.write(buffer, 0, numRead);
+        if (body.size() > BODY_LENGTH_MAX) {
+          resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Message is longer than " + BODY_LENGTH_MAX + " bytes");
+          return null;
+        }
+        numRead = inputStream.read(buffer);
+      }
+    } catch (ZipException e) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid compressed body");
+      return null;
+    } finally {
+      inputStream.close();
+    }
+
+    String charset = req.getCharacterEncoding();
+    Charset decoder = StandardCharsets.UTF_8;
+    if (charset != null) {
+      try {
+        decoder = Charset.forName(charset);
+      } catch (IllegalArgumentException e) {
+        // Unknown or invalid charset name, keep UTF-8
+      }
+    }
+    return new String(body.toByteArray(), decoder);
+  }
 }
\ No newline at end of file
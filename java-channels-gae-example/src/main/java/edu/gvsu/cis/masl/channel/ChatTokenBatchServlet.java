@@ -0,0 +1,74 @@
+package edu.gvsu.cis.masl.channel;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.channel.ChannelService;
+import com.google.appengine.api.channel.ChannelServiceFactory;
+
+/**
+ * Bulk variant of ChatChannelServlet, used by the client's TokenPool to prefetch tokens.
+ * Creates one channel for every key in "c", which is a comma separated list and can be
+ * repeated, and responds with the tokens in the same order:
+ * {"tokens":[{"channelKey":"...","token":"..."},...]}. A key that is listed twice gets
+ * two tokens, one for each client.
+ */
+@SuppressWarnings("serial")
+public class ChatTokenBatchServlet extends HttpServlet {
+  /** Max number of tokens created by one request */
+  private static final int KEYS_MAX = 500;
+
+  private static ChannelService channelService = ChannelServiceFactory.getChannelService();
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    List<String> channelKeys = new ArrayList<String>();
+    String[] values = req.getParameterValues("c");
+    if (values != null) {
+      for (String value : values) {
+        for (String channelKey : value.split(",")) {
+          if (!channelKey.isEmpty()) {
+            channelKeys.add(channelKey);
+          }
+        }
+      }
+    }
+
+    if (channelKeys.isEmpty()) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing c");
+      return;
+    }
+    if (channelKeys.size() > KEYS_MAX) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "At most " + KEYS_MAX + " keys per request");
+      return;
+    }
+
+    // Create every channel before writing, so an error doesn't leave half a response
+    String[] tokens = new String[channelKeys.size()];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = channelService.createChannel(channelKeys.get(i));
+    }
+
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    Writer writer = resp.getWriter();
+    writer.write("{\"tokens\":[");
+    for (int i = 0; i < tokens.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      writer.write("{\"channelKey\":\"");
+      writer.write(Json.escape(channelKeys.get(i)));
+      writer.write("\",\"token\":\"");
+      writer.write(Json.escape(tokens[i]));
+      writer.write("\"}");
+    }
+    writer.write("]}");
+  }
+}
@@ -0,0 +1,69 @@
+package edu.gvsu.cis.masl.channel;
+
+/**
+ * Helpers for the JSON responses, which are written directly instead of being built
+ * with a JSON library.
+ */
+final class Json {
+  private Json() {
+  }
+
+  /**
+   * @param text
+   * @return the contents of a JSON string with the text, the text itself if nothing has
+   *         to be escaped
+   */
+  static String escape(String text) {
+    int i = 0;
+    while (i < text.length() && !needsEscape(text.charAt(i))) {
+      i++;
+    }
+    if (i == text.length()) {
+      return text;
+    }
+
+    StringBuilder escaped = new StringBuilder(text.length() + 16);
+    escaped.append(text, 0, i);
+    for (; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        escaped.append('\\').append(ch);
+      } else if (ch < 0x20) {
+        escaped.append(String.format("\\u%04x", (int) ch));
+      } else {
+        escaped.append(ch);
+      }
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * @param text
+   * @return number of bytes in the text encoded as UTF-8
+   */
+  static int utf8Length(String text) {
+    int length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char ch = text.charAt(i);
+      if (ch < 0x80) {
+        length++;
+      } else if (ch < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(ch) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @param ch
+   * @return true if the character has to be escaped in a JSON string
+   */
+  private static boolean needsEscape(char ch) {
+    return ch == '"' || ch == '\\' || ch < 0x20;
+  }
+}
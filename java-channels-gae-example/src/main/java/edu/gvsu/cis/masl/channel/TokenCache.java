@@ -0,0 +1,129 @@
+package edu.gvsu.cis.masl.channel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last token created for each channel key, so a client that asks for a token again
+ * (e.g. after a restart) gets the one it had while it's still valid instead of a new
+ * channel. Tokens are kept in the order they were created: the oldest token is evicted
+ * when the cache is full, and tokens older than the max age are dropped before the
+ * channel service lets them expire.
+ */
+class TokenCache {
+  private final int maxSize;
+  private final long maxAgeNanos;
+  /** Tokens by channel key, oldest first */
+  private final LinkedHashMap<String, CachedToken> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxSize max number of tokens
+   * @param maxAgeMillis max age of a token, shorter than the channel duration
+   */
+  TokenCache(int maxSize, long maxAgeMillis) {
+    this.maxSize = maxSize;
+    this.maxAgeNanos = maxAgeMillis * 1000000L;
+    this.entries = new LinkedHashMap<String, CachedToken>(16, 0.75f, false) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedToken> eldest) {
+        if (size() > TokenCache.this.maxSize) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @param channelKey
+   * @return the token for the key, null if there is none or it's too old
+   */
+  String get(String channelKey) {
+    long now = System.nanoTime();
+    synchronized (entries) {
+      removeExpired(now);
+      CachedToken entry = entries.get(channelKey);
+      if (entry == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return entry.token;
+    }
+  }
+
+  /**
+   * @param channelKey
+   * @param token the token just created for the key, replaces the old one
+   */
+  void put(String channelKey, String token) {
+    long now = System.nanoTime();
+    synchronized (entries) {
+      // Remove first, so the new token goes to the end of the creation order
+      entries.remove(channelKey);
+      entries.put(channelKey, new CachedToken(token, now));
+    }
+  }
+
+  /**
+   * @return number of requests served from the cache
+   */
+  long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of requests that needed a new token
+   */
+  long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return number of tokens removed because they were too old or the cache was full
+   */
+  long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return number of tokens in the cache
+   */
+  int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Remove the tokens that are too old, they are all at the start. Call with the lock held.
+   * @param now current System.nanoTime()
+   */
+  private void removeExpired(long now) {
+    Iterator<CachedToken> iterator = entries.values().iterator();
+    while (iterator.hasNext() && now - iterator.next().created > maxAgeNanos) {
+      iterator.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * A token with the time it was created
+   */
+  private static class CachedToken {
+    final String token;
+    /** System.nanoTime() when the token was created */
+    final long created;
+
+    CachedToken(String token, long created) {
+      this.token = token;
+      this.created = created;
+    }
+  }
+}
@@ -0,0 +1,301 @@
+package edu.gvsu.cis.masl.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.api.channel.ChannelServiceFactory;
+import com.google.appengine.tools.development.testing.LocalChannelServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+
+public class ChatRoomServletTest {
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalChannelServiceTestConfig());
+  private ChatRoomServlet servlet = new ChatRoomServlet();
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void leavingRemovesEmptyRoom() throws IOException {
+    int roomCount = ChatRoomServlet.getRoomCount();
+    post("room", "r1", "action", "join", "channelKey", "a");
+    post("room", "r1", "action", "join", "channelKey", "b");
+    assertEquals(roomCount + 1, ChatRoomServlet.getRoomCount());
+
+    post("room", "r1", "action", "leave", "channelKey", "a");
+    assertEquals(roomCount + 1, ChatRoomServlet.getRoomCount());
+    post("room", "r1", "action", "leave", "channelKey", "b");
+    assertEquals(roomCount, ChatRoomServlet.getRoomCount());
+  }
+
+  @Test
+  public void joinFailsOnceRoomsAreFull() throws IOException {
+    int created = 0;
+    while (ChatRoomServlet.getRoomCount() < ChatRoomServlet.ROOMS_MAX) {
+      assertEquals(0, post("room", "full" + created, "action", "join", "channelKey", "a").status);
+      created++;
+    }
+
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, post("room", "one-more", "action", "join", "channelKey", "a").status);
+    // Existing rooms can still be joined
+    assertEquals(0, post("room", "full0", "action", "join", "channelKey", "b").status);
+
+    post("room", "full0", "action", "leave", "channelKey", "b");
+    for (int i = 0; i < created; i++) {
+      post("room", "full" + i, "action", "leave", "channelKey", "a");
+    }
+    assertEquals(0, post("room", "one-more", "action", "join", "channelKey", "a").status);
+    post("room", "one-more", "action", "leave", "channelKey", "a");
+  }
+
+  @Test
+  public void sendReachesEveryMember() throws IOException {
+    // More than one batch
+    joinMembers("r2", 120);
+
+    Response response = post("room", "r2", "action", "send", "message", "hello");
+    assertEquals(0, response.status);
+    assertTrue(response.body.toString(), response.body.toString().startsWith("{\"members\":120,\"batches\":3,\"failed\":0,"));
+
+    leaveMembers("r2", 120);
+  }
+
+  @Test
+  public void sendSplitsBatchesOverRequestThreads() throws IOException {
+    final StringBuilder log = new StringBuilder();
+    Handler handler = new Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        log.append(record.getMessage()).append('\n');
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    Logger.getLogger(ChatRoomServlet.class.getName()).addHandler(handler);
+    RequestThreadFactory threadFactory = installRequestThreadFactory(new CountDownLatch(0), 0);
+    joinMembers("r3", 120);
+
+    Response response = post("room", "r3", "action", "send", "message", "hello");
+    assertEquals(0, response.status);
+    assertTrue(response.body.toString(), response.body.toString().startsWith("{\"members\":120,\"batches\":3,\"failed\":0,"));
+    // The request thread sends too
+    assertEquals(2, threadFactory.threads.size());
+    assertEquals(2, threadFactory.ranCount());
+    assertTrue(log.toString(), log.toString().contains("with 3 threads"));
+
+    Logger.getLogger(ChatRoomServlet.class.getName()).removeHandler(handler);
+    leaveMembers("r3", 120);
+  }
+
+  @Test
+  public void interruptedSendWaitsForRequestThreads() throws IOException {
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    RequestThreadFactory threadFactory = installRequestThreadFactory(interrupted, 100);
+    joinMembers("r4", 120);
+
+    // Interrupts the request once it waits for the threads, which are still running
+    // when it notices
+    final Thread requestThread = Thread.currentThread();
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!isJoining(requestThread)) {
+          Thread.yield();
+        }
+        requestThread.interrupt();
+        interrupted.countDown();
+      }
+    }).start();
+    Response response = post("room", "r4", "action", "send", "message", "hello");
+    assertTrue(Thread.interrupted());
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.status);
+    assertEquals(2, threadFactory.threads.size());
+    for (Thread thread : threadFactory.threads) {
+      assertFalse(thread.isAlive());
+    }
+
+    leaveMembers("r4", 120);
+  }
+
+  /**
+   * Create channels for members and join them to the room
+   * @param room
+   * @param memberCount
+   * @throws IOException
+   */
+  private void joinMembers(String room, int memberCount) throws IOException {
+    for (int i = 0; i < memberCount; i++) {
+      ChannelServiceFactory.getChannelService().createChannel("member" + i);
+      post("room", room, "action", "join", "channelKey", "member" + i);
+    }
+  }
+
+  /**
+   * @param room
+   * @param memberCount
+   * @throws IOException
+   */
+  private void leaveMembers(String room, int memberCount) throws IOException {
+    for (int i = 0; i < memberCount; i++) {
+      post("room", room, "action", "leave", "channelKey", "member" + i);
+    }
+  }
+
+  /**
+   * Let the servlet start request threads, which the local test environment doesn't
+   * @param startSignal each thread waits for it before it runs
+   * @param startDelay milliseconds each thread waits after the start signal
+   * @return the factory
+   */
+  @SuppressWarnings("unchecked")
+  private RequestThreadFactory installRequestThreadFactory(CountDownLatch startSignal, long startDelay) {
+    RequestThreadFactory threadFactory = new RequestThreadFactory(ApiProxy.getCurrentEnvironment(), startSignal, startDelay);
+    ((Map<String, Object>) ApiProxy.getCurrentEnvironment().getAttributes()).put(
+        "com.google.appengine.api.ThreadManager.REQUEST_THREAD_FACTORY", threadFactory);
+    return threadFactory;
+  }
+
+  /**
+   * @param thread
+   * @return true if the thread is waiting in {@link Thread#join()}
+   */
+  private static boolean isJoining(Thread thread) {
+    for (StackTraceElement element : thread.getStackTrace()) {
+      if (element.getClassName().equals(Thread.class.getName()) && element.getMethodName().equals("join")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * POST to the servlet
+   * @param nameValues parameter names, each followed by its value
+   * @return the response
+   * @throws IOException
+   */
+  private Response post(String... nameValues) throws IOException {
+    final Map<String, String> parameters = new HashMap<String, String>();
+    for (int i = 0; i < nameValues.length; i += 2) {
+      parameters.put(nameValues[i], nameValues[i + 1]);
+    }
+    HttpServletRequest req = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getParameter")) {
+              return parameters.get(args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+
+    Response response = new Response();
+    servlet.doPost(req, response.servletResponse);
+    return response;
+  }
+
+  /**
+   * Creates threads that use the environment of the request, like the production
+   * request thread factory
+   */
+  private static class RequestThreadFactory implements ThreadFactory {
+    final List<Thread> threads = new ArrayList<Thread>();
+    private final ApiProxy.Environment environment;
+    private final CountDownLatch startSignal;
+    private final long startDelay;
+    private int ranCount = 0;
+
+    RequestThreadFactory(ApiProxy.Environment environment, CountDownLatch startSignal, long startDelay) {
+      this.environment = environment;
+      this.startSignal = startSignal;
+      this.startDelay = startDelay;
+    }
+
+    @Override
+    public synchronized Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ApiProxy.setEnvironmentForCurrentThread(environment);
+          try {
+            startSignal.await();
+            Thread.sleep(startDelay);
+          } catch (InterruptedException e) {
+            return;
+          }
+          runnable.run();
+          synchronized (RequestThreadFactory.this) {
+            ranCount++;
+          }
+        }
+      });
+      threads.add(thread);
+      return thread;
+    }
+
+    synchronized int ranCount() {
+      return ranCount;
+    }
+  }
+
+  /**
+   * Records the status and body written by the servlet
+   */
+  private static class Response implements InvocationHandler {
+    int status = 0;
+    StringWriter body = new StringWriter();
+    HttpServletResponse servletResponse = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { HttpServletResponse.class }, this);
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getName().equals("sendError")) {
+        status = (Integer) args[0];
+        return null;
+      } else if (method.getName().equals("getWriter")) {
+        return new PrintWriter(body, true);
+      } else if (method.getName().equals("setContentType")) {
+        return null;
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+}
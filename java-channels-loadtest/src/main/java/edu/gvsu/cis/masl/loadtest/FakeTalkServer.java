@@ -0,0 +1,553 @@
+package edu.gvsu.cis.masl.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the app's "/token" and "/token-batch" servlets and the talkgadget endpoints used by
+ * ChannelAPI in production mode: "d" (initialize), "dch/bind" POST (fetchSid and
+ * connect) and "dch/bind" GET (the long-poll). Messages published to a channel are
+ * streamed to its open long-poll as length-prefixed submissions. Like the real server,
+ * a message stays queued until a new long-poll acknowledges it with its AID, so a
+ * client that resumes its session doesn't lose messages.
+ * <p>
+ * Responses are compressed with gzip when the client accepts it. Faults can be injected: latency before every response, long-polls that are cut off in
+ * the middle of a submission, and sessions that are forgotten so that resuming fails.
+ */
+public class FakeTalkServer {
+	private static final String TALK_PATH = "/talkgadget/";
+
+	private HttpServer mServer;
+	private ExecutorService mExecutor;
+	private Map<String, Session> mSessionsBySid = new ConcurrentHashMap<String, Session>();
+	private Map<String, Session> mSessionsByToken = new ConcurrentHashMap<String, Session>();
+	private AtomicInteger mTokenCount = new AtomicInteger();
+	private AtomicInteger mSessionCount = new AtomicInteger();
+	private AtomicLong mDropCount = new AtomicLong();
+	private AtomicLong mLongPollCount = new AtomicLong();
+	private AtomicLong mHandshakeCount = new AtomicLong();
+	private volatile long mLatencyMs = 0;
+	private volatile double mDropRate = 0;
+	private volatile double mSessionLossRate = 0;
+	private volatile long mLongPollTimeoutMs = 20000;
+
+	/**
+	 * Create and start the server on a free local port
+	 * @throws IOException if the server couldn't be started
+	 */
+	public FakeTalkServer() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		mExecutor = Executors.newCachedThreadPool();
+		mServer.setExecutor(mExecutor);
+		mServer.createContext("/token", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleToken(exchange);
+			}
+		});
+		mServer.createContext("/token-batch", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleTokenBatch(exchange);
+			}
+		});
+		mServer.createContext(TALK_PATH + "d", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleInitialize(exchange);
+			}
+		});
+		mServer.createContext(TALK_PATH + "dch/bind", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("POST".equals(exchange.getRequestMethod())) {
+					handleBindPost(exchange);
+				} else {
+					handleLongPoll(exchange);
+				}
+			}
+		});
+		mServer.start();
+	}
+
+	/**
+	 * @return base URL of the app, pass it to the ChannelAPI constructor
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + mServer.getAddress().getPort();
+	}
+
+	/**
+	 * @return URL to pass to ChannelAPI.setTalkUrl()
+	 */
+	public String getTalkUrl() {
+		return getBaseUrl() + TALK_PATH;
+	}
+
+	/**
+	 * Sets the latency added before every response, including the start of a long-poll
+	 * @param latencyMs latency in milliseconds
+	 */
+	public void setLatency(long latencyMs) {
+		mLatencyMs = latencyMs;
+	}
+
+	/**
+	 * Sets how often a long-poll is cut off in the middle of a submission
+	 * @param dropRate probability per submission, 0 to 1
+	 */
+	public void setDropRate(double dropRate) {
+		mDropRate = dropRate;
+	}
+
+	/**
+	 * Sets how often the session is forgotten when a long-poll is cut off, which makes
+	 * the client fall back to a full handshake instead of resuming
+	 * @param sessionLossRate probability per dropped long-poll, 0 to 1
+	 */
+	public void setSessionLossRate(double sessionLossRate) {
+		mSessionLossRate = sessionLossRate;
+	}
+
+	/**
+	 * Sets how long a long-poll is held open before the server ends it
+	 * @param longPollTimeoutMs timeout in milliseconds
+	 */
+	public void setLongPollTimeout(long longPollTimeoutMs) {
+		mLongPollTimeoutMs = longPollTimeoutMs;
+	}
+
+	/**
+	 * Publish a message to every channel
+	 * @param message the message
+	 * @return number of channels the message was published to
+	 */
+	public int publishToAll(String message) {
+		int count = 0;
+		for (Session session : mSessionsByToken.values()) {
+			session.publish(message);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of channels with a session
+	 */
+	public int getSessionCount() {
+		return mSessionsByToken.size();
+	}
+
+	/**
+	 * @return number of long-polls that were cut off
+	 */
+	public long getDropCount() {
+		return mDropCount.get();
+	}
+
+	/**
+	 * @return number of long-poll requests
+	 */
+	public long getLongPollCount() {
+		return mLongPollCount.get();
+	}
+
+	/**
+	 * @return number of sessions set up with the full handshake, including the first one
+	 *         of each channel
+	 */
+	public long getHandshakeCount() {
+		return mHandshakeCount.get();
+	}
+
+	/**
+	 * Stop the server and end all long-polls
+	 */
+	public void stop() {
+		for (Session session : mSessionsByToken.values()) {
+			session.end();
+		}
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	/**
+	 * GET /token?c=key -> {"token":"..."}
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void handleToken(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = getParameters(exchange);
+		String token = "channel-" + mTokenCount.incrementAndGet() + "-" + parameters.get("c");
+		respond(exchange, 200, "{\"token\":\"" + token + "\"}");
+	}
+
+	/**
+	 * GET /token-batch?c=key1,key2 -> {"tokens":[{"channelKey":"key1","token":"..."},...]}
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void handleTokenBatch(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = getParameters(exchange);
+		String keys = parameters.get("c");
+		if (keys == null || keys.isEmpty()) {
+			respond(exchange, 400, "Missing c");
+			return;
+		}
+
+		StringBuilder response = new StringBuilder("{\"tokens\":[");
+		for (String key : keys.split(",")) {
+			if (response.charAt(response.length() - 1) != '[') {
+				response.append(',');
+			}
+			String token = "channel-" + mTokenCount.incrementAndGet() + "-" + key;
+			response.append("{\"channelKey\":\"").append(key).append("\",\"token\":\"").append(token).append("\"}");
+		}
+		response.append("]}");
+		respond(exchange, 200, response.toString());
+	}
+
+	/**
+	 * GET d?token=...&xpc=... -> page that calls chat.WcsDataClient() with the client id,
+	 * session id and token
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void handleInitialize(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = getParameters(exchange);
+		String token = parameters.get("token");
+		if (token == null) {
+			respond(exchange, 400, "Missing token");
+			return;
+		}
+
+		int id = mSessionCount.incrementAndGet();
+		String clientId = "client" + id;
+		String sessionId = "gsession" + id;
+		respond(exchange, 200, "<html><body><script>\nvar a = new chat.WcsDataClient(\"https://talkgadget.google.com/talkgadget/\", \"\", \"" + clientId
+				+ "\", \"" + sessionId + "\", \"\", \"WCX\", \"" + token + "\");\n</script></body></html>");
+	}
+
+	/**
+	 * POST dch/bind without SID -> new session, POST with SID -> connect
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void handleBindPost(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = getParameters(exchange);
+		String sid = parameters.get("SID");
+
+		if (sid == null) {
+			String token = parameters.get("token");
+			Session session = new Session(parameters.get("gsessionid"), "SID" + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+			Session old = mSessionsByToken.put(token, session);
+			if (old != null) {
+				mSessionsBySid.remove(old.mSid);
+				old.end();
+			}
+			mSessionsBySid.put(session.mSid, session);
+			mHandshakeCount.incrementAndGet();
+			respond(exchange, 200, submission("[[0,[\"c\",\"" + session.mSid + "\",\"\",8]]]"));
+		} else if (mSessionsBySid.containsKey(sid)) {
+			respond(exchange, 200, submission("[[1,[\"noop\"]]]"));
+		} else {
+			respond(exchange, 400, "Unknown SID");
+		}
+	}
+
+	/**
+	 * GET dch/bind?SID=...&AID=... -> stream submissions until the timeout
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void handleLongPoll(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = getParameters(exchange);
+		Session session = mSessionsBySid.get(String.valueOf(parameters.get("SID")));
+		if (session == null) {
+			respond(exchange, 400, "Unknown SID");
+			return;
+		}
+		mLongPollCount.incrementAndGet();
+
+		long ackedId = 0;
+		try {
+			ackedId = Long.parseLong(parameters.get("AID"));
+		} catch (NumberFormatException e) {
+			// Nothing acknowledged
+		}
+
+		delay();
+		boolean gzip = acceptsGzip(exchange);
+		if (gzip) {
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.sendResponseHeaders(200, 0);
+		// Flush every compressed submission right away, like an unbuffered server
+		OutputStream body = gzip ? new GZIPOutputStream(exchange.getResponseBody(), 512, true) : exchange.getResponseBody();
+		long endTime = System.currentTimeMillis() + mLongPollTimeoutMs;
+		long sentId = ackedId;
+		try {
+			while (true) {
+				List<Message> messages = session.await(ackedId, sentId, endTime);
+				if (messages == null) {
+					break;
+				}
+				for (Message message : messages) {
+					byte[] submission = submission(session.toSubmission(message)).getBytes(StandardCharsets.UTF_8);
+					if (mDropRate > 0 && ThreadLocalRandom.current().nextDouble() < mDropRate) {
+						// Cut off without the gzip trailer too
+						drop(session, body, submission);
+						return;
+					}
+					body.write(submission);
+					sentId = message.mId;
+				}
+				body.flush();
+			}
+			body.close();
+		} catch (IOException e) {
+			// Client went away
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Cut off a long-poll in the middle of a submission
+	 * @param session
+	 * @param body
+	 * @param submission the submission to cut off
+	 * @throws IOException
+	 */
+	private void drop(Session session, OutputStream body, byte[] submission) throws IOException {
+		mDropCount.incrementAndGet();
+		if (mSessionLossRate > 0 && ThreadLocalRandom.current().nextDouble() < mSessionLossRate) {
+			mSessionsBySid.remove(session.mSid);
+		}
+		body.write(submission, 0, submission.length / 2);
+		body.flush();
+	}
+
+	/**
+	 * Wait for the injected latency
+	 */
+	private void delay() {
+		long latencyMs = mLatencyMs;
+		if (latencyMs > 0) {
+			try {
+				Thread.sleep(latencyMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Send a complete response
+	 * @param exchange
+	 * @param status
+	 * @param text
+	 * @throws IOException
+	 */
+	private void respond(HttpExchange exchange, int status, String text) throws IOException {
+		delay();
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		if (acceptsGzip(exchange)) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(body);
+			gzip.close();
+			body = compressed.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	/**
+	 * @param exchange
+	 * @return true if the client accepts gzip compressed responses
+	 */
+	private static boolean acceptsGzip(HttpExchange exchange) {
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		return accept != null && accept.contains("gzip");
+	}
+
+	/**
+	 * @param body the submission
+	 * @return the submission with its length line
+	 */
+	private static String submission(String body) {
+		String line = body + "\n";
+		return line.length() + "\n" + line;
+	}
+
+	/**
+	 * @param exchange
+	 * @return query and form parameters of the request
+	 * @throws IOException
+	 */
+	private static Map<String, String> getParameters(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+
+		InputStream inputStream = exchange.getRequestBody();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int numRead = inputStream.read(buffer);
+		while (numRead >= 0) {
+			content.write(buffer, 0, numRead);
+			numRead = inputStream.read(buffer);
+		}
+		parseParameters(new String(content.toByteArray(), StandardCharsets.UTF_8), parameters);
+		return parameters;
+	}
+
+	/**
+	 * @param encoded form encoded parameters, may be null
+	 * @param parameters receives the decoded parameters
+	 * @throws UnsupportedEncodingException
+	 */
+	private static void parseParameters(String encoded, Map<String, String> parameters) throws UnsupportedEncodingException {
+		if (encoded == null || encoded.isEmpty()) {
+			return;
+		}
+		for (String pair : encoded.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0) {
+				String name = URLDecoder.decode(pair.substring(0, equals), "UTF-8");
+				parameters.put(name, URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			}
+		}
+	}
+
+	/**
+	 * A message with its array id
+	 */
+	private static class Message {
+		final long mId;
+		final String mText;
+
+		/**
+		 * @param id
+		 * @param text
+		 */
+		Message(long id, String text) {
+			mId = id;
+			mText = text;
+		}
+	}
+
+	/**
+	 * Bind session of one channel. Holds the messages that haven't been acknowledged.
+	 */
+	private static class Session {
+		final String mSessionId;
+		final String mSid;
+		private List<Message> mMessages = new ArrayList<Message>();
+		/** Array ids 0 and 1 are used by the handshake */
+		private long mNextId = 2;
+		private boolean mEnded = false;
+
+		/**
+		 * @param sessionId
+		 * @param sid
+		 */
+		Session(String sessionId, String sid) {
+			mSessionId = sessionId;
+			mSid = sid;
+		}
+
+		/**
+		 * @param text message to queue
+		 */
+		synchronized void publish(String text) {
+			mMessages.add(new Message(mNextId++, text));
+			notifyAll();
+		}
+
+		/**
+		 * End the open long-polls
+		 */
+		synchronized void end() {
+			mEnded = true;
+			notifyAll();
+		}
+
+		/**
+		 * Drop acknowledged messages and wait for messages that haven't been sent
+		 * @param ackedId messages up to this id have been received by the client
+		 * @param sentId messages up to this id have been sent on this long-poll
+		 * @param endTime when the long-poll should end
+		 * @return messages to send, null if the long-poll should end
+		 */
+		synchronized List<Message> await(long ackedId, long sentId, long endTime) {
+			Iterator<Message> iterator = mMessages.iterator();
+			while (iterator.hasNext() && iterator.next().mId <= ackedId) {
+				iterator.remove();
+			}
+
+			while (!mEnded) {
+				List<Message> messages = new ArrayList<Message>();
+				for (Message message : mMessages) {
+					if (message.mId > sentId) {
+						messages.add(message);
+					}
+				}
+				if (!messages.isEmpty()) {
+					return messages;
+				}
+
+				long waitTime = endTime - System.currentTimeMillis();
+				if (waitTime <= 0) {
+					return null;
+				}
+				try {
+					wait(waitTime);
+				} catch (InterruptedException e) {
+					return null;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @param message
+		 * @return submission body with the message as "ae" payload
+		 */
+		String toSubmission(Message message) {
+			return "[[" + message.mId + ",[\"c\",[\"" + mSessionId + "\",[\"ae\",\"" + escape(message.mText) + "\"]]]]]";
+		}
+
+		/**
+		 * @param text
+		 * @return text with quotes and backslashes escaped
+		 */
+		private static String escape(String text) {
+			return text.replace("\\", "\\\\").replace("\"", "\\\"");
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package edu.gvsu.cis.masl.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.gvsu.cis.masl.channelAPI.ChannelAPI;
+import edu.gvsu.cis.masl.channelAPI.ChannelHub;
+import edu.gvsu.cis.masl.channelAPI.ChannelMetrics;
+import edu.gvsu.cis.masl.channelAPI.ChannelOpener;
+import edu.gvsu.cis.masl.channelAPI.ChannelService;
+import edu.gvsu.cis.masl.channelAPI.ChannelViewService;
+import edu.gvsu.cis.masl.channelAPI.LatencySnapshot;
+import edu.gvsu.cis.masl.channelAPI.TokenPool;
+
+/**
+ * Opens N production-mode channels against a {@link FakeTalkServer}, publishes messages
+ * to all of them at a fixed rate and reports throughput, delivery latency, reconnects and
+ * memory per channel. Options are given as name=value arguments:
+ *
+ * <pre>
+ * clients=100     number of channels
+ * duration=30     seconds to publish messages
+ * rate=10         messages per second published to every channel
+ * latency=0       milliseconds added before every server response
+ * drop=0          probability that a submission cuts off its long-poll
+ * loss=0          probability that a cut-off long-poll also loses its session
+ * longpoll=20000  milliseconds the server holds a long-poll open before ending it
+ * hub=0           number of ChannelHub workers, 0 polls with a thread per channel
+ * hubread=250     milliseconds a ChannelHub worker waits for data on one channel
+ * grace=1         max seconds to wait for the last messages after publishing
+ * open=32         number of channels opened at the same time
+ * pool=0          1 to prefetch all tokens with a TokenPool before opening
+ * gzip=0          1 to accept gzip compressed responses
+ * view=0          1 to receive the messages as views, without creating Strings
+ * </pre>
+ */
+public class LoadDriver {
+	private Map<String, String> mOptions;
+	private FakeTalkServer mServer;
+	private List<ChannelAPI> mChannels = new ArrayList<ChannelAPI>();
+	private ChannelHub mHub = null;
+	private TokenPool mTokenPool = null;
+	private boolean mGzip = false;
+	private boolean mView = false;
+	private AtomicLong mReceivedCount = new AtomicLong();
+	private AtomicLong mErrorCount = new AtomicLong();
+	/** Delivery latencies in microseconds */
+	private long[] mLatencies = new long[1 << 16];
+	private int mLatencyCount = 0;
+
+	/**
+	 * @param args options as name=value
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals <= 0) {
+				System.err.println("Options must be name=value: " + arg);
+				System.exit(1);
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+
+		new LoadDriver(options).run();
+		System.exit(0);
+	}
+
+	/**
+	 * @param options name=value options
+	 */
+	public LoadDriver(Map<String, String> options) {
+		mOptions = options;
+	}
+
+	/**
+	 * Run the load test and print the report
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		int clientCount = getInt("clients", 100);
+		int durationSeconds = getInt("duration", 30);
+		int rate = getInt("rate", 10);
+		int hubWorkers = getInt("hub", 0);
+		int openConcurrency = getInt("open", 32);
+		mGzip = getInt("gzip", 0) != 0;
+		mView = getInt("view", 0) != 0;
+
+		mServer = new FakeTalkServer();
+		mServer.setLatency(getInt("latency", 0));
+		mServer.setDropRate(getDouble("drop", 0));
+		mServer.setSessionLossRate(getDouble("loss", 0));
+		mServer.setLongPollTimeout(getInt("longpoll", 20000));
+		if (hubWorkers > 0) {
+			mHub = new ChannelHub(hubWorkers);
+			mHub.setReadTimeout(getInt("hubread", 250));
+		}
+
+		if (getInt("pool", 0) != 0) {
+			prefetchTokens(clientCount);
+		}
+
+		long memoryBefore = getUsedMemory();
+		long openStart = System.nanoTime();
+		LatencySnapshot openLatency = openChannels(clientCount, openConcurrency);
+		double openSeconds = (System.nanoTime() - openStart) / 1e9;
+		long memoryPerChannel = (getUsedMemory() - memoryBefore) / Math.max(1, mChannels.size());
+		System.out.printf("Opened %d of %d channels in %.1f s, about %d bytes per channel (client and fake server)%n", mChannels.size(), clientCount,
+				openSeconds, memoryPerChannel);
+		System.out.printf("Open latency: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n", openLatency.getP50Millis(), openLatency.getP90Millis(),
+				openLatency.getP99Millis(), openLatency.getMaxMillis());
+		if (mTokenPool != null) {
+			System.out.printf("Token pool: %d hits, %d misses, %d expired%n", mTokenPool.getHitCount(), mTokenPool.getMissCount(),
+					mTokenPool.getExpiredCount());
+		}
+
+		long publishedCount = publish(rate, durationSeconds);
+		// Let the last messages arrive
+		long graceEnd = System.currentTimeMillis() + getInt("grace", 1) * 1000L;
+		while (mReceivedCount.get() < publishedCount && System.currentTimeMillis() < graceEnd) {
+			Thread.sleep(10);
+		}
+
+		report(publishedCount, durationSeconds);
+		for (ChannelAPI channel : mChannels) {
+			channel.close();
+		}
+		if (mHub != null) {
+			mHub.shutdown();
+		}
+		mServer.stop();
+	}
+
+	/**
+	 * Fetch the tokens of all channels before opening them
+	 * @param clientCount number of channels
+	 * @throws IOException
+	 */
+	private void prefetchTokens(int clientCount) throws IOException {
+		List<String> keys = new ArrayList<String>(clientCount);
+		for (int i = 0; i < clientCount; i++) {
+			keys.add("load" + i);
+		}
+
+		mTokenPool = new TokenPool(mServer.getBaseUrl());
+		long start = System.nanoTime();
+		mTokenPool.prefetch(keys);
+		System.out.printf("Prefetched %d tokens with %d requests in %.1f ms%n", mTokenPool.size(), mTokenPool.getRequestCount(),
+				(System.nanoTime() - start) / 1e6);
+	}
+
+	/**
+	 * Open the channels a few at a time
+	 * @param clientCount number of channels
+	 * @param concurrency number of channels opened at the same time
+	 * @return latencies of creating and opening the channels
+	 * @throws InterruptedException
+	 */
+	private LatencySnapshot openChannels(int clientCount, int concurrency) throws InterruptedException {
+		ChannelOpener opener = new ChannelOpener(concurrency);
+		for (int i = 0; i < clientCount; i++) {
+			final String key = "load" + i;
+			opener.add(new Callable<ChannelAPI>() {
+				@Override
+				public ChannelAPI call() throws Exception {
+					ChannelAPI channel = new ChannelAPI(mServer.getBaseUrl(), key, mView ? new ViewListener() : new Listener(), mTokenPool);
+					channel.setTalkUrl(mServer.getTalkUrl());
+					channel.setProduction(true);
+					channel.setReconnectPolicy(20, 100, 5000);
+					if (mGzip) {
+						channel.setAcceptCompressed(true);
+						channel.enableMetrics(key);
+					}
+					if (mHub != null) {
+						mHub.add(channel);
+					}
+					return channel;
+				}
+			});
+		}
+
+		for (ChannelOpener.Result result : opener.openAll()) {
+			if (result.isOpen()) {
+				mChannels.add(result.getChannel());
+			} else {
+				mErrorCount.incrementAndGet();
+			}
+		}
+		return opener.getLatency();
+	}
+
+	/**
+	 * Publish messages to all channels at a fixed rate
+	 * @param rate messages per second
+	 * @param durationSeconds
+	 * @return number of messages published, counting each channel
+	 * @throws InterruptedException
+	 */
+	private long publish(int rate, int durationSeconds) throws InterruptedException {
+		long publishedCount = 0;
+		long intervalNanos = 1000000000L / Math.max(1, rate);
+		long start = System.nanoTime();
+		long end = start + durationSeconds * 1000000000L;
+		long next = start;
+		while (next < end) {
+			long sleepNanos = next - System.nanoTime();
+			if (sleepNanos > 0) {
+				Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+			}
+			// The send time is the message, so the listener can measure latency
+			publishedCount += mServer.publishToAll(Long.toString(System.nanoTime()));
+			next += intervalNanos;
+		}
+		return publishedCount;
+	}
+
+	/**
+	 * Print the results
+	 * @param publishedCount
+	 * @param durationSeconds
+	 */
+	private void report(long publishedCount, int durationSeconds) {
+		long resumeCount = 0;
+		long handshakeCount = 0;
+		for (ChannelAPI channel : mChannels) {
+			resumeCount += channel.getSessionResumeCount();
+			handshakeCount += channel.getReconnectHandshakeCount();
+		}
+
+		long[] latencies;
+		synchronized (this) {
+			latencies = Arrays.copyOf(mLatencies, mLatencyCount);
+		}
+		Arrays.sort(latencies);
+
+		System.out.printf("Messages: %d published, %d received, %.0f received/s%n", publishedCount, mReceivedCount.get(), mReceivedCount.get()
+				/ (double) durationSeconds);
+		System.out.printf("Latency: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms%n", getPercentile(latencies, 0.5), getPercentile(latencies, 0.9),
+				getPercentile(latencies, 0.99), getPercentile(latencies, 1));
+		System.out.printf("Server: %d long-polls, %d cut off, %d handshakes%n", mServer.getLongPollCount(), mServer.getDropCount(),
+				mServer.getHandshakeCount());
+		if (mGzip) {
+			ChannelMetrics metrics = ChannelMetrics.getProcessMetrics();
+			System.out.printf("Bytes: %d received, %d after decompression%n", metrics.getBytesReceived(), metrics.getBytesDecoded());
+		}
+		System.out.printf("Clients: %d resumed sessions, %d reconnect handshakes, %d errors%n", resumeCount, handshakeCount, mErrorCount.get());
+	}
+
+	/**
+	 * @param sorted sorted latencies in microseconds
+	 * @param percentile 0 to 1
+	 * @return the percentile in milliseconds
+	 */
+	private static double getPercentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(sorted.length * percentile) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000.0;
+	}
+
+	/**
+	 * @param latencyMicros delivery latency of a message
+	 */
+	private synchronized void recordLatency(long latencyMicros) {
+		if (mLatencyCount == mLatencies.length) {
+			mLatencies = Arrays.copyOf(mLatencies, mLatencies.length * 2);
+		}
+		mLatencies[mLatencyCount++] = latencyMicros;
+	}
+
+	/**
+	 * @return used heap in bytes after a garbage collection
+	 */
+	private static long getUsedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @param name
+	 * @param defaultValue
+	 * @return the option as an int
+	 */
+	private int getInt(String name, int defaultValue) {
+		String value = mOptions.get(name);
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	/**
+	 * @param name
+	 * @param defaultValue
+	 * @return the option as a double
+	 */
+	private double getDouble(String name, double defaultValue) {
+		String value = mOptions.get(name);
+		return value != null ? Double.parseDouble(value) : defaultValue;
+	}
+
+	/**
+	 * Measures the delivery latency of every message
+	 */
+	private class Listener implements ChannelService {
+		@Override
+		public void onOpen() {
+		}
+
+		@Override
+		public void onMessage(String message) {
+			long now = System.nanoTime();
+			mReceivedCount.incrementAndGet();
+			try {
+				recordLatency((now - Long.parseLong(message)) / 1000);
+			} catch (NumberFormatException e) {
+				mErrorCount.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void onClose() {
+		}
+
+		@Override
+		public void onError(Integer errorCode, String description) {
+			mErrorCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Measures the delivery latency of every message, reading the send time from the view
+	 */
+	private class ViewListener extends Listener implements ChannelViewService {
+		@Override
+		public void onMessageView(CharSequence message) {
+			long now = System.nanoTime();
+			mReceivedCount.incrementAndGet();
+			int length = message.length();
+			long sendTime = 0;
+			for (int i = 0; i < length; i++) {
+				int digit = Character.digit(message.charAt(i), 10);
+				if (digit < 0) {
+					mErrorCount.incrementAndGet();
+					return;
+				}
+				sendTime = sendTime * 10 + digit;
+			}
+			if (length == 0) {
+				mErrorCount.incrementAndGet();
+				return;
+			}
+			recordLatency((now - sendTime) / 1000);
+		}
+	}
+}